@@ -0,0 +1,205 @@
+package de.mechrain.cli;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import org.apache.logging.log4j.spi.StandardLevel;
+import org.jline.terminal.impl.DumbTerminal;
+
+import de.mechrain.cmdline.MechRainFory;
+import de.mechrain.cmdline.beans.LogEvent;
+
+/**
+ * Test data and fixtures shared by the benchmarks.
+ * <p>
+ * Messages are generated with a fixed seed in the mix the server logs: mostly data units, some
+ * connection and discovery chatter, a few warnings and errors. The benchmarks decoding frames
+ * serialize these messages as {@link LogEvent}s the way the server sends them. A capture of a
+ * real connection can be decoded instead, the <code>.frames</code> file also accepted by
+ * <code>--replay</code>, e.g. recorded with <code>nc &lt;server&gt; &lt;port&gt; &gt; capture.frames</code>.
+ * Its path is taken from the system property {@value #CAPTURE_PROPERTY}.
+ */
+final class BenchmarkData {
+
+	static final String CAPTURE_PROPERTY = "mechrain.capture";
+
+	private static final long SEED = 42;
+	private static final long START_MILLIS = 1_700_000_000_000L;
+
+	private static final String[] LOGGERS = {
+			"mechrain.server",
+			"mechrain.udp",
+			"mechrain.device",
+			"mechrain.sink.influx",
+			"mechrain.task"
+	};
+
+	private static final String[] DATA_UNITS = {
+			"SoilMoistureAbsDataUnit length: 1 soilMoistureAbs: ",
+			"TemperatureDataUnit length: 1 temperature: ",
+			"HumidityDataUnit length: 1 humidity: "
+	};
+
+	private BenchmarkData() {
+	}
+
+	/**
+	 * @param count the number of messages
+	 * @return messages with ascending timestamps, no two consecutive ones repeat each other
+	 */
+	static LogMessage[] messages(final int count) {
+		final Random random = new Random(SEED);
+		final LogMessage[] messages = new LogMessage[count];
+		for (int i = 0; i < count; i++) {
+			final long timestamp = START_MILLIS + i * 7L;
+			final int kind = random.nextInt(100);
+			if (kind < 70) {
+				messages[i] = new LogMessage(StandardLevel.DEBUG, timestamp, "mechrain.device",
+						DataUnitParser.PREFIX + DATA_UNITS[random.nextInt(DATA_UNITS.length)] + random.nextInt(4096) + " device " + random.nextInt(16));
+			} else if (kind < 90) {
+				messages[i] = new LogMessage(StandardLevel.INFO, timestamp, LOGGERS[random.nextInt(LOGGERS.length)],
+						"Received: MECH-RAIN-HELLO from /192.168.0." + random.nextInt(256) + ":5000 seq " + i);
+			} else if (kind < 98) {
+				messages[i] = new LogMessage(StandardLevel.WARN, timestamp, "mechrain.sink.influx",
+						"Write to sink " + random.nextInt(8) + " took " + random.nextInt(2_000) + "ms, retrying");
+			} else {
+				messages[i] = new LogMessage(StandardLevel.ERROR, timestamp, "mechrain.server",
+						"Connection reset by peer, closing session " + i);
+			}
+		}
+		return messages;
+	}
+
+	/**
+	 * @param capacity the buffer capacity
+	 * @return a config kept in memory, evicted messages are dropped
+	 */
+	static LogConfig config(final int capacity) {
+		final Properties properties = new Properties();
+		properties.setProperty("bufferCapacity", String.valueOf(capacity));
+		properties.setProperty("spillBudgetMb", "0");
+		return new LogConfig(properties);
+	}
+
+	/**
+	 * @return a terminal with the capabilities of an xterm discarding all output
+	 */
+	static MechRainTerminal nullTerminal() throws IOException {
+		return new MechRainTerminal(new DumbTerminal("null", "xterm-256color", InputStream.nullInputStream(), OutputStream.nullOutputStream(), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @param count the number of frames to generate without a capture
+	 * @return the payloads of the frames without the length prefix, read from the capture if
+	 *         {@value #CAPTURE_PROPERTY} is set
+	 */
+	static List<byte[]> frames(final int count) throws IOException {
+		final String capture = System.getProperty(CAPTURE_PROPERTY);
+		if (capture != null) {
+			return capturedFrames(Paths.get(capture));
+		}
+		final List<byte[]> frames = new ArrayList<>(count);
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+		final DataOutputStream dos = new DataOutputStream(bos);
+		for (final LogMessage msg : messages(count)) {
+			final LogEvent event = new LogEvent();
+			event.setLevel(msg.getLevel().intLevel());
+			event.setTimeMillis(msg.getTimestamp());
+			event.setLoggerName(msg.getLoggerName());
+			event.setFormattedMessage(msg.getText());
+			bos.reset();
+			MechRainFory.serializeAndSend(event, dos);
+			dos.flush();
+			frames.add(Arrays.copyOfRange(bos.toByteArray(), Integer.BYTES, bos.size()));
+		}
+		return frames;
+	}
+
+	/**
+	 * Reads a capture and cuts off an incomplete last frame.
+	 */
+	private static List<byte[]> capturedFrames(final Path path) throws IOException {
+		final List<byte[]> frames = new ArrayList<>();
+		try (final DataInputStream dis = new DataInputStream(Files.newInputStream(path))) {
+			while (true) {
+				final int len = dis.readInt();
+				if (len < 0 || len > FrameReader.MAX_FRAME_SIZE) {
+					throw new IOException("Invalid frame length " + len + " in " + path);
+				}
+				final byte[] frame = new byte[len];
+				dis.readFully(frame);
+				frames.add(frame);
+			}
+		} catch (final EOFException e) {
+			// end of the capture
+		}
+		if (frames.isEmpty()) {
+			throw new IllegalStateException("No frame in " + path);
+		}
+		return frames;
+	}
+
+	/**
+	 * @param frames the payloads of the frames
+	 * @return the frames with their length prefix, as sent by the server
+	 */
+	static byte[] stream(final List<byte[]> frames) {
+		int size = 0;
+		for (final byte[] frame : frames) {
+			size += 4 + frame.length;
+		}
+		final byte[] stream = new byte[size];
+		int pos = 0;
+		for (final byte[] frame : frames) {
+			stream[pos++] = (byte) (frame.length >>> 24);
+			stream[pos++] = (byte) (frame.length >>> 16);
+			stream[pos++] = (byte) (frame.length >>> 8);
+			stream[pos++] = (byte) frame.length;
+			System.arraycopy(frame, 0, stream, pos, frame.length);
+			pos += frame.length;
+		}
+		return stream;
+	}
+
+	/**
+	 * Endless stream repeating the same bytes, so a reader can be benchmarked in steady state.
+	 */
+	static final class LoopInputStream extends InputStream {
+
+		private final byte[] data;
+		private int pos;
+
+		LoopInputStream(final byte[] data) {
+			this.data = data;
+		}
+
+		@Override
+		public int read() {
+			final int b = data[pos] & 0xff;
+			pos = (pos + 1) % data.length;
+			return b;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) {
+			final int n = Math.min(len, data.length - pos);
+			System.arraycopy(data, pos, b, off, n);
+			pos = (pos + n) % data.length;
+			return n;
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package de.mechrain.cli;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The {@link LogDumper} run by {@link ConsoleOutputRunner#dumpToFile(String, LogDumper.Format)},
+ * writing a full buffer to a temporary file. The score is in log entries per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DumpBenchmark {
+
+	private static final int ENTRIES = 100_000;
+
+	@Param({ "TEXT", "JSONL" })
+	public LogDumper.Format format;
+
+	@Param({ "false", "true" })
+	public boolean compressed;
+
+	private MechRainTerminal terminal;
+	private LogConfig config;
+	private LogBuffer buffer;
+	private Path path;
+
+	@Setup
+	public void setup() throws IOException {
+		terminal = BenchmarkData.nullTerminal();
+		config = BenchmarkData.config(ENTRIES);
+		buffer = new LogBuffer(ENTRIES);
+		for (final LogMessage msg : BenchmarkData.messages(ENTRIES)) {
+			buffer.append(msg);
+		}
+		path = Files.createTempFile("mechrain-dump", compressed ? ".log.gz" : ".log");
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		buffer.close();
+		Files.deleteIfExists(path);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ENTRIES)
+	public void dump() {
+		new LogDumper(terminal, config, buffer.snapshot(), path, format).run();
+	}
+}
@@ -0,0 +1,73 @@
+package de.mechrain.cli;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.mechrain.cli.LogConfig.FilterBy;
+
+/**
+ * {@link ConsoleOutputRunner#shouldOutput(LogMessage)}, evaluated for every ingested message,
+ * in every filter mode. The level filter is always active, the terms match a part of the
+ * messages.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterBenchmark {
+
+	@Param({ "DONT", "LOG_NAME", "TEXT", "EXPRESSION" })
+	public FilterBy filterBy;
+
+	private ConsoleOutputRunner runner;
+	private LogMessage[] messages;
+	private int next;
+
+	@Setup
+	public void setup() throws IOException {
+		final LogConfig config = BenchmarkData.config(LogBuffer.DEFAULT_CAPACITY);
+		config.setFilter(filterBy, filterString(filterBy));
+		runner = new ConsoleOutputRunner((LogReplayer) null, BenchmarkData.nullTerminal(), config);
+		messages = BenchmarkData.messages(4096);
+	}
+
+	private static String filterString(final FilterBy filterBy) {
+		switch (filterBy) {
+		case LOG_NAME:
+			return "influx";
+		case TEXT:
+			return "HELLO";
+		case EXPRESSION:
+			return "logger:\"mechrain.udp\" || (level>=warn && text:retrying) || !text:\"data unit\"i";
+		default:
+			return "";
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		runner.close();
+	}
+
+	@Benchmark
+	public boolean shouldOutput() {
+		final LogMessage msg = messages[next];
+		next = (next + 1) % messages.length;
+		return runner.shouldOutput(msg);
+	}
+}
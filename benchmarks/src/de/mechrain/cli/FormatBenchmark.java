@@ -0,0 +1,86 @@
+package de.mechrain.cli;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.jline.utils.AttributedStringBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Formatting a log line for the console and for files.
+ * <p>
+ * {@link #formatConsole()}, {@link #writeLogLine()} and {@link #writeJsonLine()} reuse the
+ * buffers of the {@link LogFormatter}, with <code>-prof gc</code> their allocation rate per
+ * operation should stay close to 0. {@link #toConsoleOutput()} includes the styling and the
+ * output through jline into a terminal discarding everything.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FormatBenchmark {
+
+	@Param({ "true", "false" })
+	public boolean showTime;
+
+	private MechRainTerminal terminal;
+	private LogConfig config;
+	private LogMessage[] messages;
+	private int next;
+	private final OutputStream nullStream = OutputStream.nullOutputStream();
+	private final AttributedStringBuilder asb = new AttributedStringBuilder();
+
+	@Setup
+	public void setup() throws IOException {
+		terminal = BenchmarkData.nullTerminal();
+		config = BenchmarkData.config(LogBuffer.DEFAULT_CAPACITY);
+		config.setShowTime(showTime);
+		messages = BenchmarkData.messages(4096);
+	}
+
+	private LogMessage next() {
+		final LogMessage msg = messages[next];
+		next = (next + 1) % messages.length;
+		return msg;
+	}
+
+	@Benchmark
+	public void toConsoleOutput() {
+		next().toConsoleOutput(terminal, config);
+	}
+
+	@Benchmark
+	public AttributedStringBuilder appendConsoleOutput() {
+		asb.setLength(0);
+		next().appendConsoleOutput(asb, config);
+		return asb;
+	}
+
+	@Benchmark
+	public int formatConsole() {
+		return LogFormatter.formatConsole(next(), config).length();
+	}
+
+	@Benchmark
+	public void writeLogLine() throws IOException {
+		LogFormatter.writeLogLine(nullStream, next(), config);
+	}
+
+	@Benchmark
+	public void writeJsonLine() throws IOException {
+		LogFormatter.writeJsonLine(nullStream, next());
+	}
+}
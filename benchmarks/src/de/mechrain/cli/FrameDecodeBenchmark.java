@@ -0,0 +1,61 @@
+package de.mechrain.cli;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.mechrain.cmdline.MechRainFory;
+
+/**
+ * Decoding the frames of a connection: length prefix plus {@link MechRainFory} deserialization
+ * through the {@link FrameReader}, and the deserialization alone. The frames are generated, or
+ * read from a capture, see {@link BenchmarkData}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FrameDecodeBenchmark {
+
+	private byte[][] frames;
+	private int next;
+	private FrameReader reader;
+
+	@Setup
+	public void setup() throws IOException {
+		final List<byte[]> generated = BenchmarkData.frames(4096);
+		frames = generated.toArray(new byte[0][]);
+		reader = new FrameReader(new BenchmarkData.LoopInputStream(BenchmarkData.stream(generated)));
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		reader.close();
+	}
+
+	@Benchmark
+	public Object readFrame() throws IOException {
+		return reader.readFrame();
+	}
+
+	@Benchmark
+	public Object deserialize() {
+		final byte[] frame = frames[next];
+		next = (next + 1) % frames.length;
+		return MechRainFory.deserialize(frame);
+	}
+}
@@ -0,0 +1,91 @@
+package de.mechrain.cli;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.mechrain.cmdline.MechRainFory;
+import de.mechrain.cmdline.beans.LogEvent;
+
+/**
+ * Creating the {@link LogMessage} of a received event, as done for every frame, and from decoded
+ * fields, as done when reading the spill store or a recording.
+ * <p>
+ * The events of {@link #fromEvent(Events)} are decoded from frames, generated or read from a
+ * capture, see {@link BenchmarkData}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LogMessageBenchmark {
+
+	@State(Scope.Thread)
+	public static class Events {
+
+		private LogEvent[] events;
+		private int next;
+
+		@Setup
+		public void setup() throws IOException {
+			final List<LogEvent> decoded = new ArrayList<>();
+			for (final byte[] frame : BenchmarkData.frames(4096)) {
+				if (MechRainFory.deserialize(frame) instanceof LogEvent event) {
+					decoded.add(event);
+				}
+			}
+			if (decoded.isEmpty()) {
+				throw new IllegalStateException("No log event in the frames");
+			}
+			events = decoded.toArray(new LogEvent[0]);
+		}
+
+		LogEvent next() {
+			final LogEvent event = events[next];
+			next = (next + 1) % events.length;
+			return event;
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Fields {
+
+		private LogMessage[] messages;
+		private int next;
+
+		@Setup
+		public void setup() {
+			messages = BenchmarkData.messages(4096);
+		}
+
+		LogMessage next() {
+			final LogMessage msg = messages[next];
+			next = (next + 1) % messages.length;
+			return msg;
+		}
+	}
+
+	@Benchmark
+	public LogMessage fromEvent(final Events events) {
+		return new LogMessage(events.next(), null);
+	}
+
+	@Benchmark
+	public LogMessage fromFields(final Fields fields) {
+		final LogMessage msg = fields.next();
+		return new LogMessage(msg.getServer(), msg.getLevel(), msg.getTimestamp(), msg.getLoggerName(), msg.getText());
+	}
+}
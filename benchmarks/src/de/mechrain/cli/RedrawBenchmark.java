@@ -0,0 +1,71 @@
+package de.mechrain.cli;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.spi.StandardLevel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.mechrain.cli.LogConfig.FilterBy;
+
+/**
+ * {@link ConsoleOutputRunner#redraw()} of a full buffer after a filter change, printing a screen
+ * plus the scrollback into a terminal discarding everything.
+ * <p>
+ * Without a filter only the newest lines are read. The text filter matches a fifth of the
+ * messages, the logger filter restricted to errors about 2%. Their candidates come from the
+ * index, the rarer the matches the further back the redraw reaches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RedrawBenchmark {
+
+	@Param({ "10000", "100000", "1000000" })
+	public int bufferSize;
+
+	@Param({ "DONT", "TEXT", "LOG_NAME" })
+	public FilterBy filterBy;
+
+	private ConsoleOutputRunner runner;
+
+	@Setup
+	public void setup() throws IOException {
+		final LogConfig config = BenchmarkData.config(bufferSize);
+		runner = new ConsoleOutputRunner((LogReplayer) null, BenchmarkData.nullTerminal(), config);
+		runner.setUpdateConsole(false);
+		for (final LogMessage msg : BenchmarkData.messages(bufferSize)) {
+			runner.ingest(msg);
+		}
+		if (filterBy == FilterBy.TEXT) {
+			config.setFilter(filterBy, "HELLO");
+		} else if (filterBy == FilterBy.LOG_NAME) {
+			config.setFilter(filterBy, "mechrain.server");
+			config.setFilterLevel(StandardLevel.ERROR);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		runner.close();
+	}
+
+	@Benchmark
+	public void redraw() {
+		runner.redraw();
+	}
+}
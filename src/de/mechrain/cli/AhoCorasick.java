@@ -0,0 +1,131 @@
+package de.mechrain.cli;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Aho-Corasick automaton answering whether a text contains any of a set of literal terms in a
+ * single pass over the text.
+ * <p>
+ * ASCII transitions are resolved into a dense table at construction time, other characters use
+ * sparse transitions plus failure links. Case insensitive matching folds each character while
+ * scanning, so no lower case copy of the text is created.
+ */
+public final class AhoCorasick {
+
+	private static final int ASCII = 128;
+
+	private final boolean ignoreCase;
+	/** Dense ASCII transitions with failure links already applied. */
+	private final int[][] asciiNext;
+	/** Sparse transitions for non ASCII characters of the trie. */
+	private final List<Map<Character, Integer>> sparseNext;
+	private final int[] fail;
+	private final boolean[] terminal;
+
+	public AhoCorasick(final List<String> terms, final boolean ignoreCase) {
+		if (terms.isEmpty()) {
+			throw new IllegalArgumentException("At least one term required");
+		}
+		this.ignoreCase = ignoreCase;
+
+		/* build the trie */
+		final List<Map<Character, Integer>> trie = new ArrayList<>();
+		final List<Boolean> terminalStates = new ArrayList<>();
+		trie.add(new HashMap<>());
+		terminalStates.add(Boolean.FALSE);
+		for (final String term : terms) {
+			if (term.isEmpty()) {
+				throw new IllegalArgumentException("Empty search term");
+			}
+			int state = 0;
+			for (int i = 0; i < term.length(); i++) {
+				final char c = fold(term.charAt(i));
+				Integer next = trie.get(state).get(c);
+				if (next == null) {
+					next = trie.size();
+					trie.add(new HashMap<>());
+					terminalStates.add(Boolean.FALSE);
+					trie.get(state).put(c, next);
+				}
+				state = next;
+			}
+			terminalStates.set(state, Boolean.TRUE);
+		}
+
+		final int states = trie.size();
+		this.sparseNext = trie;
+		this.fail = new int[states];
+		this.terminal = new boolean[states];
+		this.asciiNext = new int[states][];
+		for (int s = 0; s < states; s++) {
+			terminal[s] = terminalStates.get(s);
+		}
+
+		/* breadth first: failure links and the dense ASCII table */
+		final Queue<Integer> queue = new ArrayDeque<>();
+		asciiNext[0] = new int[ASCII];
+		for (int c = 0; c < ASCII; c++) {
+			final Integer next = trie.get(0).get((char) c);
+			asciiNext[0][c] = next != null ? next : 0;
+		}
+		for (final int child : trie.get(0).values()) {
+			fail[child] = 0;
+			queue.add(child);
+		}
+		while ( ! queue.isEmpty()) {
+			final int state = queue.poll();
+			terminal[state] |= terminal[fail[state]];
+			asciiNext[state] = Arrays.copyOf(asciiNext[fail[state]], ASCII);
+			for (final Map.Entry<Character, Integer> entry : trie.get(state).entrySet()) {
+				final char c = entry.getKey();
+				final int child = entry.getValue();
+				fail[child] = step(fail[state], c);
+				if (c < ASCII) {
+					asciiNext[state][c] = child;
+				}
+				queue.add(child);
+			}
+		}
+	}
+
+	private char fold(final char c) {
+		return ignoreCase ? Character.toLowerCase(Character.toUpperCase(c)) : c;
+	}
+
+	private int step(int state, final char c) {
+		if (c < ASCII) {
+			return asciiNext[state][c];
+		}
+		while (true) {
+			final Integer next = sparseNext.get(state).get(c);
+			if (next != null) {
+				return next;
+			}
+			if (state == 0) {
+				return 0;
+			}
+			state = fail[state];
+		}
+	}
+
+	/**
+	 * @param text the text to search
+	 * @return true if the text contains at least one of the terms
+	 */
+	public boolean matches(final CharSequence text) {
+		int state = 0;
+		for (int i = 0, len = text.length(); i < len; i++) {
+			state = step(state, fold(text.charAt(i)));
+			if (terminal[state]) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
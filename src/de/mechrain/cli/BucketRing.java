@@ -0,0 +1,110 @@
+package de.mechrain.cli;
+
+import java.util.Arrays;
+
+/**
+ * Fixed number of consecutive time buckets of equal width holding count, min, max and sum of the
+ * readings falling into them. Readings are aggregated on insert, so reading a bucket range costs
+ * the same no matter how many readings have been added. Once a reading starts a new bucket the
+ * oldest bucket is reused; readings older than the oldest bucket are ignored.
+ * <p>
+ * Not thread safe, the owning {@link TimeSeries} synchronizes access.
+ */
+final class BucketRing {
+
+	private final long width;
+	private final long[] starts;
+	private final long[] counts;
+	private final double[] mins;
+	private final double[] maxs;
+	private final double[] sums;
+
+	private long newestStart = Long.MIN_VALUE;
+
+	/**
+	 * @param width the bucket width in milliseconds
+	 * @param capacity the number of buckets
+	 */
+	BucketRing(final long width, final int capacity) {
+		this.width = width;
+		this.starts = new long[capacity];
+		this.counts = new long[capacity];
+		this.mins = new double[capacity];
+		this.maxs = new double[capacity];
+		this.sums = new double[capacity];
+		Arrays.fill(starts, Long.MIN_VALUE);
+	}
+
+	/**
+	 * @return the start of the oldest bucket which may hold readings
+	 */
+	long getOldestStart() {
+		return newestStart == Long.MIN_VALUE ? Long.MIN_VALUE : newestStart - (starts.length - 1) * width;
+	}
+
+	void add(final long timestamp, final double value) {
+		add(timestamp, 1, value, value, value);
+	}
+
+	/**
+	 * Adds pre-aggregated readings to the bucket containing the timestamp.
+	 */
+	void add(final long timestamp, final long count, final double min, final double max, final double sum) {
+		final long start = Math.floorDiv(timestamp, width) * width;
+		if (newestStart != Long.MIN_VALUE && start < getOldestStart()) {
+			return;
+		}
+		final int index = index(start);
+		if (starts[index] != start) {
+			starts[index] = start;
+			counts[index] = 0;
+			mins[index] = Double.POSITIVE_INFINITY;
+			maxs[index] = Double.NEGATIVE_INFINITY;
+			sums[index] = 0;
+		}
+		counts[index] += count;
+		mins[index] = Math.min(mins[index], min);
+		maxs[index] = Math.max(maxs[index], max);
+		sums[index] += sum;
+		newestStart = Math.max(newestStart, start);
+	}
+
+	/**
+	 * Reads the <code>out.length</code> consecutive buckets ending with the bucket containing the
+	 * given timestamp, oldest first. Buckets without readings are left empty.
+	 *
+	 * @param end a timestamp within the newest bucket to read
+	 * @param out the statistics to fill, one per bucket
+	 */
+	void read(final long end, final Stats[] out) {
+		final long last = Math.floorDiv(end, width) * width;
+		for (int i = 0; i < out.length; i++) {
+			out[i].reset();
+			final long start = last - (out.length - 1 - i) * width;
+			final int index = index(start);
+			if (starts[index] == start) {
+				out[i].add(counts[index], mins[index], maxs[index], sums[index]);
+			}
+		}
+	}
+
+	/**
+	 * Adds all buckets starting within [from, to) to the statistics.
+	 */
+	void aggregate(final long from, final long to, final Stats stats) {
+		if (newestStart == Long.MIN_VALUE) {
+			return;
+		}
+		final long first = Math.max(Math.floorDiv(from + width - 1, width) * width, getOldestStart());
+		for (long start = first; start < to && start <= newestStart; start += width) {
+			final int index = index(start);
+			if (starts[index] == start) {
+				stats.add(counts[index], mins[index], maxs[index], sums[index]);
+			}
+		}
+	}
+
+	private int index(final long start) {
+		return (int) Math.floorMod(Math.floorDiv(start, width), (long) starts.length);
+	}
+}
@@ -0,0 +1,224 @@
+package de.mechrain.cli;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Non-blocking I/O for all server connections on a single thread.
+ * <p>
+ * The engine is created once per CLI session and outlives reconnects, so no thread is started
+ * per connection. Frames are decoded on the engine thread and passed to the
+ * {@link ServerConnection.FrameHandler} of the connection. Requests are serialized by the
+ * calling thread, queued at the connection and written by the engine thread with gathering
+ * writes. Registering, writing, pausing and closing are requested through queues and a
+ * {@link Selector#wakeup()}, so the selector and the channels are only touched by the engine
+ * thread.
+ * <p>
+ * A connection whose handler can't keep up pauses reading, its key drops <code>OP_READ</code>
+ * so TCP flow control throttles that server without stalling the others.
+ */
+public class ConnectionEngine implements Runnable, Closeable {
+
+	private static final long JOIN_MILLIS = 2_000;
+
+	private final Selector selector;
+	private final Queue<ServerConnection> registrations = new ConcurrentLinkedQueue<>();
+	private final Queue<ServerConnection> writes = new ConcurrentLinkedQueue<>();
+	private final Queue<ServerConnection> interestUpdates = new ConcurrentLinkedQueue<>();
+	private final Queue<ServerConnection> closes = new ConcurrentLinkedQueue<>();
+	/** Only touched by the engine thread. */
+	private final List<ServerConnection> connections = new ArrayList<>();
+
+	private volatile boolean running;
+	private Thread thread;
+
+	public ConnectionEngine() throws IOException {
+		this.selector = Selector.open();
+	}
+
+	/**
+	 * Starts the engine thread.
+	 */
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+		running = true;
+		thread = new Thread(this, "connection-engine");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Connects to a server. The connection doesn't read until it is started with
+	 * {@link ServerConnection#start(ServerConnection.FrameHandler)}.
+	 *
+	 * @param tag the tag of the server
+	 * @param address the address of the server
+	 * @param timeoutMillis the connect timeout, a stale cached endpoint must not block for the
+	 *            default timeout of the OS
+	 * @return the connection
+	 * @throws IOException if the server can't be connected
+	 */
+	public ServerConnection connect(final String tag, final InetSocketAddress address, final int timeoutMillis) throws IOException {
+		final SocketChannel channel = SocketChannel.open();
+		try {
+			channel.socket().connect(address, timeoutMillis);
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			return new ServerConnection(this, tag, channel);
+		} catch (final IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	void register(final ServerConnection connection) {
+		registrations.add(connection);
+		selector.wakeup();
+	}
+
+	void requestWrite(final ServerConnection connection) {
+		writes.add(connection);
+		selector.wakeup();
+	}
+
+	void requestInterestUpdate(final ServerConnection connection) {
+		interestUpdates.add(connection);
+		selector.wakeup();
+	}
+
+	void requestClose(final ServerConnection connection) {
+		closes.add(connection);
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				selector.select();
+				processRequests();
+				final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					final SelectionKey key = keys.next();
+					keys.remove();
+					final ServerConnection connection = (ServerConnection) key.attachment();
+					try {
+						/* the key may have been selected before reading was paused */
+						if (key.isValid() && key.isReadable() && ! connection.isReadPaused() && ! connection.read()) {
+							close(connection, new EOFException("Closed by server"));
+							continue;
+						}
+						if (key.isValid() && key.isWritable() && connection.write()) {
+							key.interestOps(readOps(connection));
+						}
+					} catch (final IOException | RuntimeException e) {
+						close(connection, e);
+					}
+				}
+			}
+		} catch (final IOException | ClosedSelectorException e) {
+			// shutting down
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			for (final ServerConnection connection : new ArrayList<>(connections)) {
+				close(connection, null);
+			}
+			ServerConnection connection;
+			while ((connection = registrations.poll()) != null) {
+				close(connection, null);
+			}
+			try {
+				selector.close();
+			} catch (final IOException e) {
+				// closing anyway
+			}
+		}
+	}
+
+	private void processRequests() {
+		ServerConnection connection;
+		while ((connection = registrations.poll()) != null) {
+			try {
+				connection.setKey(connection.getChannel().register(selector, readOps(connection), connection));
+				connections.add(connection);
+				/* requests sent before the connection was started */
+				writes.add(connection);
+			} catch (final IOException e) {
+				close(connection, e);
+			}
+		}
+		while ((connection = writes.poll()) != null) {
+			final SelectionKey key = connection.getKey();
+			if (key == null || ! key.isValid()) {
+				continue;
+			}
+			try {
+				/* try right away, only wait for the channel if the socket buffer is full */
+				if ( ! connection.write()) {
+					key.interestOps(readOps(connection) | SelectionKey.OP_WRITE);
+				}
+			} catch (final IOException e) {
+				close(connection, e);
+			}
+		}
+		while ((connection = interestUpdates.poll()) != null) {
+			final SelectionKey key = connection.getKey();
+			if (key != null && key.isValid()) {
+				/* keep waiting for a pending write */
+				key.interestOps(readOps(connection) | (key.interestOps() & SelectionKey.OP_WRITE));
+			}
+		}
+		while ((connection = closes.poll()) != null) {
+			close(connection, null);
+		}
+	}
+
+	private static int readOps(final ServerConnection connection) {
+		return connection.isReadPaused() ? 0 : SelectionKey.OP_READ;
+	}
+
+	private void close(final ServerConnection connection, final Exception cause) {
+		connections.remove(connection);
+		connection.closed(cause);
+	}
+
+	/**
+	 * Closes all connections and stops the engine thread.
+	 */
+	@Override
+	public void close() {
+		final Thread engineThread;
+		synchronized (this) {
+			running = false;
+			engineThread = thread;
+		}
+		selector.wakeup();
+		if (engineThread != null) {
+			try {
+				engineThread.join(JOIN_MILLIS);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		} else {
+			try {
+				selector.close();
+			} catch (final IOException e) {
+				// closing anyway
+			}
+		}
+	}
+}
@@ -1,27 +1,35 @@
 package de.mechrain.cli;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.FileOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Deque;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.fory.exception.DeserializationException;
 import org.jline.utils.AttributedStringBuilder;
 import org.jline.utils.AttributedStyle;
 
-import de.mechrain.cmdline.MechRainFory;
 import de.mechrain.cmdline.beans.AddSinkRequest;
 import de.mechrain.cmdline.beans.AddTaskRequest;
 import de.mechrain.cmdline.beans.DeviceConfigRequest;
@@ -46,22 +54,85 @@ import de.mechrain.cmdline.beans.SwitchToNonInteractiveRequest;
 
 public class ConsoleOutputRunner implements Runnable {
 	
-	private static final int MAX_MESSAGES = 10_000;
+	private static final int MAX_SEARCH_RESULTS = 1_000;
+	private static final int SERIES_ROWS = 10;
+	private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+	private static final int BROADCAST_AFTER_ATTEMPTS = 3;
+	private static final long MAX_RECONNECT_DELAY_MILLIS = 10_000;
 	
-	private final InputStream is;
-	private final DataOutputStream dos;
+	private final List<ServerConnection> connections = new CopyOnWriteArrayList<>();
+	private final ServerDiscovery discovery;
+	private final LogMerger merger = new LogMerger();
+	private final LogReplayer replayer;
 	private final MechRainTerminal terminal;
 	private final LogConfig logConfig;
 
-	private final Deque<LogMessage> logMessages = new ConcurrentLinkedDeque<>();
+	private final LogBuffer logBuffer;
+	private final ConsoleRenderer renderer;
+	private final MetricStore metrics;
+	private final RequestTracker tracker = new RequestTracker(RequestTracker.MAX_IN_FLIGHT, RequestTracker.TIMEOUT_MILLIS);
+	private final LogThrottle throttle;
 	
-	private boolean updateConsole = true;
+	/** Frames other than log events may wait for user input, they are kept off the engine thread. */
+	private final ExecutorService requestExecutor;
+	private final ScheduledExecutorService reconnector;
+	/** Incremented by {@link #disconnect()} to cancel pending reconnects. */
+	private final AtomicInteger generation = new AtomicInteger();
+	/** The last log message received per server tag, to skip what a reconnected server sends again. */
+	private final Map<String, LogMessage> lastReceived = new ConcurrentHashMap<>();
+	private final Set<String> servers = ConcurrentHashMap.newKeySet();
 	
-	public ConsoleOutputRunner(final InputStream is, final OutputStream os, final MechRainTerminal terminal, final LogConfig logConfig) throws IOException {
-		this.is = is;
-		this.dos = new DataOutputStream(os);
+	/** Set by the prompt thread, read for every message by the runner thread. */
+	private volatile boolean updateConsole = true;
+	private Thread dumpThread;
+	private volatile LogRecorder recorder;
+	/** The connection requests are sent to. */
+	private volatile ServerConnection target;
+	
+	/**
+	 * Creates a runner for the connections of a CLI session, they are added with
+	 * {@link #attach(List)}. Their log messages are merged by timestamp into one buffer which is
+	 * kept across reconnects. Requests are sent to the first connection until another one is
+	 * selected with {@link #selectServer(String)}. Lost connections are reconnected in the
+	 * background until {@link #disconnect()} is called.
+	 * 
+	 * @param discovery the discovery used to reconnect lost servers
+	 */
+	public ConsoleOutputRunner(final ServerDiscovery discovery, final MechRainTerminal terminal, final LogConfig logConfig) throws IOException {
+		this(discovery, null, terminal, logConfig);
+	}
+	
+	/**
+	 * Creates a runner without connection which feeds the messages of the replayer through the
+	 * buffer, the filter and the renderer. Requests to the server are discarded.
+	 */
+	public ConsoleOutputRunner(final LogReplayer replayer, final MechRainTerminal terminal, final LogConfig logConfig) throws IOException {
+		this(null, replayer, terminal, logConfig);
+	}
+	
+	private ConsoleOutputRunner(final ServerDiscovery discovery, final LogReplayer replayer, final MechRainTerminal terminal, final LogConfig logConfig) throws IOException {
+		this.discovery = discovery;
+		this.replayer = replayer;
 		this.terminal = terminal;
 		this.logConfig = logConfig;
+		final SpillStore spillStore = logConfig.getSpillBudgetMb() > 0 ? SpillStore.createTemp(logConfig.getSpillBudgetMb() * 1024L * 1024L) : null;
+		this.logBuffer = new LogBuffer(logConfig.getBufferCapacity(), spillStore);
+		this.renderer = new ConsoleRenderer(terminal, logConfig);
+		this.metrics = new MetricStore(MetricStore.DEFAULT_MAX_READINGS, logConfig.getRawRetentionMinutes() * 60_000L);
+		this.throttle = new LogThrottle(logConfig, this::store);
+		if (discovery != null) {
+			this.requestExecutor = Executors.newSingleThreadExecutor(runnable -> daemon(runnable, "server-requests"));
+			this.reconnector = Executors.newSingleThreadScheduledExecutor(runnable -> daemon(runnable, "reconnector"));
+		} else {
+			this.requestExecutor = null;
+			this.reconnector = null;
+		}
+	}
+	
+	private static Thread daemon(final Runnable runnable, final String name) {
+		final Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		return thread;
 	}
 
 	public void setUpdateConsole(boolean updateConsole) {
@@ -69,16 +140,27 @@ public class ConsoleOutputRunner implements Runnable {
 	}
 	
 	public void showBuffer() {
-		final int logMsgCount = logMessages.size();
-		terminal.printInfo(logMsgCount + "/" + MAX_MESSAGES + ' ' + (((float)logMsgCount / MAX_MESSAGES) * 100) + "%");
+		final int logMsgCount = logBuffer.size();
+		final int capacity = logBuffer.getCapacity();
+		terminal.printInfo(logMsgCount + "/" + capacity + ' ' + (((float)logMsgCount / capacity) * 100) + "%");
+		final SpillStore spillStore = logBuffer.getSpillStore();
+		if (spillStore != null) {
+			final long spilled = logBuffer.snapshot().size() - logMsgCount;
+			terminal.printInfo(spilled + " on disk, " + (spillStore.getUsedBytes() >> 20) + "/" + (spillStore.getBudgetBytes() >> 20) + "MB");
+		}
+		final long collapsed = throttle.getCollapsed();
+		final long rateLimited = throttle.getRateLimited();
+		if (collapsed + rateLimited > 0) {
+			terminal.printInfo(collapsed + " repeated lines collapsed, " + rateLimited + " lines suppressed by rate limits");
+		}
+		final long suppressed = renderer.getTotalSuppressed();
+		if (suppressed > 0) {
+			terminal.printInfo(suppressed + " lines not rendered because the terminal was too slow");
+		}
 	}
 	
 	public void showDevices() {
-		try {
-			MechRainFory.serializeAndSend(DeviceListRequest.INSTANCE, dos);
-		} catch (final IOException e) {
-			terminal.printError("Could not send device list request. " + e.getMessage());
-		}
+		request(DeviceListRequest.INSTANCE, DeviceListResponse.class, this::handleDeviceListResponse, "device list");
 	}
 
 	public void configDevice(final String id) {
@@ -86,19 +168,17 @@ public class ConsoleOutputRunner implements Runnable {
 			final int deviceId = Integer.parseInt(id);
 			final DeviceConfigRequest request = new DeviceConfigRequest();
 			request.setDeviceId(deviceId);
-			MechRainFory.serializeAndSend(request, dos);
+			request(request, DeviceConfigResponse.class, this::handleDeviceConfigResponse, "device config");
 			terminal.switchReader();
 		} catch (final NumberFormatException e) {
 			terminal.printError("Invalid device id " + id + " expected a number. " + e.getMessage());
-		} catch (final IOException e) {
-			terminal.printError("Could not send config device request. " + e.getMessage());
 		}
 	}
 	
 	public void endConfigDevice() {
 		try {
 			final EndConfigureDeviceRequest request = new EndConfigureDeviceRequest();
-			MechRainFory.serializeAndSend(request, dos);
+			send(request);
 		} catch (final IOException e) {
 			terminal.printError("Could not send end config device request. " + e.getMessage());
 		} finally {
@@ -109,7 +189,7 @@ public class ConsoleOutputRunner implements Runnable {
 	public void addSink() {
 		try {
 			final AddSinkRequest request = new AddSinkRequest();
-			MechRainFory.serializeAndSend(request, dos);
+			send(request);
 			terminal.setInteractive(true);
 		} catch (final IOException e) {
 			terminal.printError("Could not send add sink request. " + e.getMessage());
@@ -119,7 +199,7 @@ public class ConsoleOutputRunner implements Runnable {
 	public void removeSink(final int id) {
 		try {
 			final RemoveSinkRequest request = new RemoveSinkRequest(id);
-			MechRainFory.serializeAndSend(request, dos);
+			send(request);
 		} catch (final IOException e) {
 			terminal.printError("Could not send remove sink request. " + e.getMessage());
 		}
@@ -127,7 +207,7 @@ public class ConsoleOutputRunner implements Runnable {
 	public void addTask() {
 		try {
 			final AddTaskRequest request = AddTaskRequest.INSTANCE;
-			MechRainFory.serializeAndSend(request, dos);
+			send(request);
 			terminal.setInteractive(true);
 		} catch (final IOException e) {
 			terminal.printError("Could not send add task request. " + e.getMessage());
@@ -137,7 +217,7 @@ public class ConsoleOutputRunner implements Runnable {
 	public void removeTask(final int id) {
 		try {
 			final RemoveTaskRequest request = new RemoveTaskRequest(id);
-			MechRainFory.serializeAndSend(request, dos);
+			send(request);
 		} catch (final IOException e) {
 			terminal.printError("Could not send add sink request. " + e.getMessage());
 		}
@@ -145,7 +225,7 @@ public class ConsoleOutputRunner implements Runnable {
 	
 	public void removeDevice() {
 		try {
-			MechRainFory.serializeAndSend(RemoveDeviceRequest.INSTANCE, dos);
+			send(RemoveDeviceRequest.INSTANCE);
 			terminal.switchReader();
 		} catch (final IOException e) {
 			terminal.printError("Could not send remove device request. " + e.getMessage());
@@ -160,7 +240,7 @@ public class ConsoleOutputRunner implements Runnable {
 	public void setDeviceId(int id) {
 		try {
 			final SetIdRequest request = new SetIdRequest(id);
-			MechRainFory.serializeAndSend(request, dos);
+			send(request);
 		} catch (final IOException e) {
 			terminal.printError("Could not send set task request. " + e.getMessage());
 		}
@@ -174,7 +254,7 @@ public class ConsoleOutputRunner implements Runnable {
 	public void setDeviceDescription(final String description) {
 		try {
 			final SetDescriptionRequest request = new SetDescriptionRequest(description);
-			MechRainFory.serializeAndSend(request, dos);
+			send(request);
 		} catch (final IOException e) {
 			terminal.printError("Could not send set task request. " + e.getMessage());
 		}
@@ -183,7 +263,7 @@ public class ConsoleOutputRunner implements Runnable {
 	public void setDeviceNumPixels(int numPixels) {
 		try {
 			final SetNumPixelsRequest request = new SetNumPixelsRequest(numPixels);
-			MechRainFory.serializeAndSend(request, dos);
+			send(request);
 		} catch (final IOException e) {
 			terminal.printError("Could not send set task request. " + e.getMessage());
 		}
@@ -192,7 +272,7 @@ public class ConsoleOutputRunner implements Runnable {
 	public void setDeviceLedRGB(final int r, final int g, final int b) {
 		try {
 			final SetLedAllRgbRequest request = new SetLedAllRgbRequest(r, g, b);
-			MechRainFory.serializeAndSend(request, dos);
+			send(request);
 		} catch (final IOException e) {
 			terminal.printError("Could not send set task request. " + e.getMessage());
 		}
@@ -201,7 +281,7 @@ public class ConsoleOutputRunner implements Runnable {
 	public void setDeviceLedMode(final int mode) {
 		try {
 			final SetLedMode1Request request = SetLedMode1Request.INSTANCE;
-			MechRainFory.serializeAndSend(request, dos);
+			send(request);
 		} catch (final IOException e) {
 			terminal.printError("Could not send set task request. " + e.getMessage());
 		}
@@ -213,14 +293,326 @@ public class ConsoleOutputRunner implements Runnable {
 	public void resetDevice() {
 		try {
 			final DeviceResetRequest request = new DeviceResetRequest();
-			MechRainFory.serializeAndSend(request, dos);
+			send(request);
 		} catch (final IOException e) {
 			terminal.printError("Could not reset device. " + e.getMessage());
 		}
 	}
 	
+	/**
+	 * Queues a request for the selected server, discards it without connection.
+	 */
+	private void send(final Object request) throws IOException {
+		final ServerConnection connection = target;
+		if (connection != null) {
+			tracker.send(connection, request);
+		}
+	}
+	
+	/**
+	 * Sends a request to the selected server without waiting for the response, the response is
+	 * passed to the handler once it arrives.
+	 * 
+	 * @param request the request bean
+	 * @param responseType the type of the response
+	 * @param handler the handler of the response
+	 * @param what what is requested, for the error message
+	 */
+	private <T> void request(final Object request, final Class<T> responseType, final Consumer<T> handler, final String what) {
+		final ServerConnection connection = target;
+		if (connection == null) {
+			return;
+		}
+		tracker.request(connection, request, responseType).whenComplete((response, failure) -> {
+			if (failure == null) {
+				handler.accept(response);
+			} else if (failure instanceof TimeoutException) {
+				terminal.printError("No " + what + " response from " + connection.getTag() + " within " + RequestTracker.TIMEOUT_MILLIS + "ms");
+			} else {
+				terminal.printError("Could not get " + what + ". " + failure.getMessage());
+			}
+		});
+	}
+	
+	/**
+	 * Prints the round-trip latency of the requests answered by the servers and the number of
+	 * requests sent per command.
+	 */
+	public void showLatency() {
+		final Map<String, RequestTracker.CommandStats> commands = tracker.getCommands();
+		if (commands.isEmpty()) {
+			terminal.printInfo("No requests sent yet");
+			return;
+		}
+		terminal.printAbove(commandTable(commands));
+		final long late = tracker.getLate();
+		terminal.printInfo(tracker.getInFlight() + " requests in flight" + (late > 0 ? ", " + late + " responses arrived after the timeout" : ""));
+	}
+	
+	/**
+	 * Runs the device sections of a command file against the selected server and prints a
+	 * report per command.
+	 * 
+	 * @param fileName the command file
+	 * @return true if all commands succeeded
+	 */
+	public boolean runScript(final String fileName) {
+		final ServerConnection connection = target;
+		if (discovery == null || connection == null || ! connection.isOpen()) {
+			terminal.printError("Not connected to a server");
+			return false;
+		}
+		final DeviceScript script;
+		try {
+			script = DeviceScript.parse(Paths.get(fileName));
+		} catch (final IOException e) {
+			terminal.printError("Could not read " + fileName + " " + e.getMessage());
+			return false;
+		} catch (final IllegalArgumentException e) {
+			terminal.printError(fileName + ": " + e.getMessage());
+			return false;
+		}
+		if (script.getSections().isEmpty()) {
+			terminal.printInfo("No devices in " + fileName);
+			return true;
+		}
+		final ScriptRunner.Result result;
+		try {
+			result = new ScriptRunner(discovery, tracker).run(script, connection);
+		} catch (final IOException e) {
+			terminal.printError("Could not connect to " + connection.getTag() + " " + e.getMessage());
+			return false;
+		}
+		terminal.printAbove(commandTable(result.getCommands()));
+		final List<String> failures = result.getFailures();
+		for (final String failure : failures) {
+			terminal.printError(failure);
+		}
+		final String summary = "Provisioned " + (result.sections - failures.size()) + "/" + result.sections + " devices in " + result.millis
+				+ "ms over " + result.sessions + (result.sessions == 1 ? " connection" : " connections");
+		if (failures.isEmpty()) {
+			terminal.printInfo(summary);
+		} else {
+			terminal.printWarning(summary);
+		}
+		return failures.isEmpty();
+	}
+	
+	/**
+	 * Formats the number of requests sent, failed and the round-trip latency of the answered
+	 * requests per command.
+	 */
+	private static AttributedStringBuilder commandTable(final Map<String, RequestTracker.CommandStats> commands) {
+		final AttributedStringBuilder table = new AttributedStringBuilder();
+		table.style(AttributedStyle.DEFAULT.foreground(AttributedStyle.WHITE));
+		table
+			.append(StringUtils.center("Command", 22)).append('|')
+			.append(StringUtils.center("Sent", 8)).append('|')
+			.append(StringUtils.center("Timeouts", 10)).append('|')
+			.append(StringUtils.center("Failed", 8)).append('|')
+			.append(StringUtils.center("Min ms", 10)).append('|')
+			.append(StringUtils.center("Avg ms", 10)).append('|')
+			.append(StringUtils.center("Max ms", 10)).append('\n');
+		table.append(StringUtils.repeat('-', 84)).append('\n');
+		for (final Entry<String, RequestTracker.CommandStats> entry : commands.entrySet()) {
+			final RequestTracker.CommandStats stats = entry.getValue();
+			final boolean answered = stats.latency.getCount() > 0;
+			table.style(AttributedStyle.DEFAULT.foreground(stats.timeouts + stats.failures > 0 ? AttributedStyle.YELLOW : AttributedStyle.GREEN));
+			table
+				.append(StringUtils.rightPad(entry.getKey(), 22)).append('|')
+				.append(StringUtils.leftPad(String.valueOf(stats.sent), 8)).append('|')
+				.append(StringUtils.leftPad(String.valueOf(stats.timeouts), 10)).append('|')
+				.append(StringUtils.leftPad(String.valueOf(stats.failures), 8)).append('|')
+				.append(StringUtils.leftPad(answered ? MetricStore.format(stats.latency.getMin()) : "-", 10)).append('|')
+				.append(StringUtils.leftPad(answered ? MetricStore.format(stats.latency.getAvg()) : "-", 10)).append('|')
+				.append(StringUtils.leftPad(answered ? MetricStore.format(stats.latency.getMax()) : "-", 10)).append('\n');
+		}
+		table.style(AttributedStyle.DEFAULT);
+		return table;
+	}
+	
+	/**
+	 * @return true if at least one connection is open
+	 */
+	public boolean isConnected() {
+		for (final ServerConnection connection : connections) {
+			if (connection.isOpen()) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Closes all connections and cancels pending reconnects. The runner keeps its buffer and
+	 * continues with the connections of the next {@link #attach(List)}.
+	 */
+	public void disconnect() {
+		generation.incrementAndGet();
+		for (final ServerConnection connection : connections) {
+			connection.close();
+		}
+	}
+	
+	/**
+	 * Disconnects and stops the runner once the remaining messages are processed.
+	 */
+	public void stop() {
+		disconnect();
+		merger.shutdown();
+	}
+	
+	/**
+	 * Starts reading from the given connections, the time until the first log message of each
+	 * server arrives is reported.
+	 * 
+	 * @param newConnections the connections
+	 */
+	public void attach(final List<ServerConnection> newConnections) {
+		final long since = System.nanoTime();
+		for (final ServerConnection connection : newConnections) {
+			servers.add(connection.getTag());
+		}
+		for (final ServerConnection connection : newConnections) {
+			start(connection, since);
+		}
+	}
+	
+	/**
+	 * Searches servers which are not connected yet in the background and attaches them, so a
+	 * server added since the endpoints were cached is found as well.
+	 */
+	public void discoverNewServers() {
+		final int gen = generation.get();
+		try {
+			reconnector.execute(() -> {
+				if (gen != generation.get()) {
+					return;
+				}
+				final List<ServerConnection> found = discovery.connectNew(new ArrayList<>(connections));
+				if (gen != generation.get()) {
+					for (final ServerConnection connection : found) {
+						connection.close();
+					}
+					return;
+				}
+				for (final ServerConnection connection : found) {
+					terminal.printInfo("Discovered further server " + connection.getTag());
+				}
+				attach(found);
+			});
+		} catch (final RejectedExecutionException e) {
+			// stopped
+		}
+	}
+	
+	/**
+	 * Replaces a former connection to the same server and starts reading.
+	 */
+	private synchronized void start(final ServerConnection connection, final long since) {
+		final int index = indexOf(connection.getTag());
+		if (index < 0) {
+			connections.add(connection);
+		} else if (connections.set(index, connection) == target) {
+			target = connection;
+		}
+		final ServerConnection current = target;
+		if (current == null || ! current.isOpen()) {
+			target = connection;
+		}
+		connection.start(new Handler(merger.open(connection::pauseReading, connection::resumeReading), since, lastReceived.get(connection.getTag())));
+	}
+	
+	private int indexOf(final String tag) {
+		for (int i = 0; i < connections.size(); i++) {
+			if (connections.get(i).getTag().equals(tag)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Tries to reconnect a lost server after a jittered exponential backoff. The last known
+	 * address is tried directly first, after {@link #BROADCAST_AFTER_ATTEMPTS} failed attempts
+	 * the discovery broadcast is used as well, in case the server came back on another port.
+	 * 
+	 * @param tag the tag of the server
+	 * @param address the last known address
+	 * @param lost when the connection was lost, in {@link System#nanoTime()}
+	 * @param attempt the number of failed attempts so far
+	 * @param gen the generation the reconnect belongs to
+	 */
+	private void scheduleReconnect(final String tag, final InetSocketAddress address, final long lost, final int attempt, final int gen) {
+		try {
+			reconnector.schedule(() -> reconnect(tag, address, lost, attempt, gen),
+					ServerDiscovery.backoffMillis(attempt, MAX_RECONNECT_DELAY_MILLIS), TimeUnit.MILLISECONDS);
+		} catch (final RejectedExecutionException e) {
+			// stopped
+		}
+	}
+	
+	private void reconnect(final String tag, final InetSocketAddress address, final long lost, final int attempt, final int gen) {
+		if (gen != generation.get()) {
+			return;
+		}
+		final ServerConnection connection = discovery.reconnect(tag, address, attempt >= BROADCAST_AFTER_ATTEMPTS);
+		if (connection == null) {
+			scheduleReconnect(tag, address, lost, attempt + 1, gen);
+		} else if (gen != generation.get()) {
+			connection.close();
+		} else {
+			terminal.printInfo("Reconnected to " + tag + " after " + (attempt + 1) + (attempt == 0 ? " attempt" : " attempts"));
+			start(connection, lost);
+		}
+	}
+	
+	/**
+	 * Prints the connected servers, the one requests are sent to is marked.
+	 */
+	public void showServers() {
+		if (connections.isEmpty()) {
+			terminal.printInfo("Not connected to a server");
+			return;
+		}
+		final AttributedStringBuilder table = new AttributedStringBuilder();
+		table.style(AttributedStyle.DEFAULT.foreground(AttributedStyle.WHITE));
+		table
+			.append(StringUtils.center("Server", 22)).append('|')
+			.append(StringUtils.center("Address", 22)).append('|')
+			.append(StringUtils.center("Received", 12)).append('|')
+			.append(StringUtils.center("Status", 14)).append('\n');
+		table.append(StringUtils.repeat('-', 73)).append('\n');
+		for (final ServerConnection connection : connections) {
+			table.style(AttributedStyle.DEFAULT.foreground(connection.isOpen() ? AttributedStyle.GREEN : AttributedStyle.YELLOW));
+			table
+				.append(StringUtils.rightPad((connection == target ? "* " : "  ") + connection.getTag(), 22)).append('|')
+				.append(StringUtils.rightPad(connection.getAddress().getAddress().getHostAddress() + ':' + connection.getAddress().getPort(), 22)).append('|')
+				.append(StringUtils.leftPad(String.valueOf(connection.getReceived()), 12)).append('|')
+				.append(StringUtils.center(connection.isOpen() ? "connected" : "disconnected", 14)).append('\n');
+		}
+		table.style(AttributedStyle.DEFAULT);
+		terminal.printAbove(table);
+	}
+	
+	/**
+	 * Selects the server device requests are sent to.
+	 * 
+	 * @param tag the tag of the server
+	 */
+	public void selectServer(final String tag) {
+		for (final ServerConnection connection : connections) {
+			if (connection.getTag().equalsIgnoreCase(tag)) {
+				target = connection;
+				terminal.printInfo("Sending requests to " + connection.getTag());
+				return;
+			}
+		}
+		terminal.printError("Unknown server '" + tag + "', see 'server'");
+	}
+	
 	public void clearBuffer() {
-		logMessages.clear();
+		logBuffer.clear();
 	}
 	
 	/**
@@ -229,41 +621,198 @@ public class ConsoleOutputRunner implements Runnable {
 	 * @param msg the log message to evaluate
 	 * @return true if the message should be output, false otherwise
 	 */
-	private boolean shouldOutput(final LogMessage msg) {
-		if (msg.getLevel().intLevel() > logConfig.getFilterLevel().intLevel()) {
-			return false;
+	boolean shouldOutput(final LogMessage msg) {
+		return logConfig.getSnapshot().test(msg);
+	}
+	
+	/**
+	 * Redraws the console output based on the current log buffer and filter settings.
+	 * <p>
+	 * Only the newest matching messages needed to fill the terminal plus the configured
+	 * scrollback are collected, walking the buffer backwards, and printed in a single write.
+	 */
+	public void redraw() {
+		final LogBuffer.Snapshot snapshot = logBuffer.snapshot();
+		/* the scrollback is limited to the buffer capacity, the terminal height is not */
+		final int maxLines = (int) Math.min((long) terminal.getHeight() + logConfig.getRedrawScrollback(), snapshot.getToSeq() - snapshot.getFromSeq());
+		if (maxLines <= 0) {
+			return;
 		}
-
-		switch (logConfig.getFilterBy()) {
-		case DONT:
-			return true;
-		case LOG_NAME:
-			return msg.getLoggerName().contains(logConfig.getFilterString());
-		case TEXT:
-			return msg.getText().contains(logConfig.getFilterString());
-		default:
+		final LogMessage[] lines = new LogMessage[maxLines];
+		final int[] count = new int[1];
+		snapshot.selectDescending(logConfig.getFilter(), (seq, msg) -> {
+			lines[count[0]++] = msg;
+			return count[0] < maxLines;
+		});
+		if (count[0] == 0) {
+			return;
+		}
+		final AttributedStringBuilder asb = new AttributedStringBuilder();
+		for (int i = count[0] - 1; i >= 0; i--) {
+			lines[i].appendConsoleOutput(asb, logConfig);
+			if (i > 0) {
+				asb.append('\n');
+			}
+		}
+		terminal.printAbove(asb);
+	}
+	
+	/**
+	 * Opens the full screen log viewer, live console output is paused meanwhile.
+	 */
+	public void viewLog() {
+		setUpdateConsole(false);
+		try {
+			terminal.viewLog(logBuffer, logConfig);
+		} finally {
+			setUpdateConsole(true);
+		}
+	}
+	
+	/**
+	 * Prints the most recent messages containing all words of the query, regardless of the
+	 * current filter settings.
+	 * 
+	 * @param query the words to search for
+	 */
+	public void search(final String query) {
+		final LogFilter filter;
+		try {
+			filter = LogFilters.tokens(query);
+		} catch (final IllegalArgumentException e) {
+			terminal.printError(e.getMessage());
+			return;
+		}
+		final long start = System.currentTimeMillis();
+		final Deque<LogMessage> matches = new ArrayDeque<>();
+		final long[] count = new long[1];
+		logBuffer.snapshot().select(filter, (seq, msg) -> {
+			if (matches.size() == MAX_SEARCH_RESULTS) {
+				matches.removeFirst();
+			}
+			matches.addLast(msg);
+			++count[0];
 			return true;
+		});
+		final AttributedStringBuilder asb = new AttributedStringBuilder();
+		for (final LogMessage msg : matches) {
+			msg.appendConsoleOutput(asb, logConfig);
+			asb.append('\n');
+		}
+		asb.style(AttributedStyle.DEFAULT.foreground(AttributedStyle.GREEN));
+		asb.append(count[0] + " matches for '" + query + "' in " + (System.currentTimeMillis() - start) + "ms");
+		if (count[0] > matches.size()) {
+			asb.append(", showing the last " + matches.size());
 		}
+		asb.style(AttributedStyle.DEFAULT);
+		terminal.printAbove(asb);
 	}
 	
 	/**
-	 * Redraws the console output based on the current log buffer and filter settings.
+	 * Prints all series of sensor readings extracted from data unit messages.
 	 */
-	public void redraw() {
-		for (final Iterator<LogMessage> iterator = logMessages.iterator(); iterator.hasNext();) {
-			final LogMessage msg = iterator.next();
-			if (shouldOutput(msg)) {
-				msg.toConsoleOutput(terminal, logConfig);
+	public void showMetrics() {
+		final List<TimeSeries> allSeries = metrics.getSeries();
+		if (allSeries.isEmpty()) {
+			terminal.printInfo("No data units received yet");
+			return;
+		}
+		final AttributedStringBuilder table = new AttributedStringBuilder();
+		table.style(AttributedStyle.DEFAULT.foreground(AttributedStyle.WHITE));
+		table
+			.append(StringUtils.center("Metric", 25)).append('|')
+			.append(StringUtils.center("Device", 20)).append('|')
+			.append(StringUtils.center("Readings", 10)).append('|')
+			.append(StringUtils.center("Last", 12)).append('|')
+			.append(StringUtils.center("At", 10)).append('\n');
+		table.append(StringUtils.repeat('-', 81)).append('\n');
+		table.style(AttributedStyle.DEFAULT.foreground(AttributedStyle.GREEN));
+		for (final TimeSeries series : allSeries) {
+			table
+				.append(StringUtils.rightPad(series.getMetric(), 25)).append('|')
+				.append(StringUtils.rightPad(series.getDevice(), 20)).append('|')
+				.append(StringUtils.leftPad(String.valueOf(series.getTotal()), 10)).append('|')
+				.append(StringUtils.leftPad(MetricStore.format(series.getLastValue()), 12)).append('|')
+				.append(StringUtils.center(formatTime(series.getLastTimestamp()), 10)).append('\n');
+		}
+		table.style(AttributedStyle.DEFAULT);
+		terminal.printAbove(table);
+	}
+	
+	/**
+	 * Opens the full screen sensor dashboard, live console output is paused meanwhile.
+	 */
+	public void showDashboard() {
+		setUpdateConsole(false);
+		try {
+			terminal.showDashboard(metrics);
+		} finally {
+			setUpdateConsole(true);
+		}
+	}
+	
+	/**
+	 * Prints min, max and average of a metric over the given window before the latest reading,
+	 * overall and split into {@link #SERIES_ROWS} equal parts. Long windows are read from the
+	 * coarsest adequate rollup tier, the resolution used is printed with the series.
+	 * 
+	 * @param metric the metric name
+	 * @param window the window in milliseconds
+	 */
+	public void showSeries(final String metric, final long window) {
+		final List<TimeSeries> allSeries = metrics.getSeries(metric);
+		if (allSeries.isEmpty()) {
+			terminal.printError("Unknown metric '" + metric + "', see 'show metrics'");
+			return;
+		}
+		final AttributedStringBuilder asb = new AttributedStringBuilder();
+		final Stats stats = new Stats();
+		for (final TimeSeries series : allSeries) {
+			final long to = series.getLastTimestamp() + 1;
+			final long from = to - window;
+			final long resolution = series.selectResolution(from, to);
+			stats.reset();
+			series.aggregate(from, to, resolution, stats);
+			asb.style(AttributedStyle.BOLD.foreground(AttributedStyle.CYAN));
+			asb.append(series.getMetric() + " of " + series.getDevice() + ": " + stats.getCount() + " readings, min "
+					+ MetricStore.format(stats.getMin()) + ", max " + MetricStore.format(stats.getMax()) + ", avg "
+					+ MetricStore.format(stats.getAvg()) + " ("
+					+ (resolution == TimeSeries.RAW ? "raw readings" : MetricStore.formatDuration(resolution) + " rollups") + ")\n");
+			asb.style(AttributedStyle.DEFAULT.foreground(AttributedStyle.GREEN));
+			final long step = Math.max(1, window / SERIES_ROWS);
+			for (long start = from; start < to; start += step) {
+				stats.reset();
+				series.aggregate(start, Math.min(to, start + step), resolution, stats);
+				asb.append(StringUtils.rightPad(formatTime(start), 10))
+					.append(StringUtils.leftPad(String.valueOf(stats.getCount()), 8))
+					.append(StringUtils.leftPad(MetricStore.format(stats.getMin()), 12))
+					.append(StringUtils.leftPad(MetricStore.format(stats.getMax()), 12))
+					.append(StringUtils.leftPad(MetricStore.format(stats.getAvg()), 12)).append('\n');
 			}
 		}
+		asb.style(AttributedStyle.DEFAULT);
+		terminal.printAbove(asb);
+	}
+	
+	private String formatTime(final long timestamp) {
+		if (timestamp == Long.MIN_VALUE) {
+			return "-";
+		}
+		return Instant.ofEpochMilli(timestamp).atZone(logConfig.getZoneId()).format(TIME_FORMAT);
 	}
 	
 	/**
-	 * Dumps the current log buffer to a file.
+	 * Dumps the current log buffer to a file. The dump runs in the background, the prompt is
+	 * only blocked while asking whether to override an existing file.
 	 * 
-	 * @param fileName the file name to dump the log to
+	 * @param fileName the file name to dump the log to, a <code>.gz</code> suffix compresses the output
+	 * @param format the output format
 	 */
-	public void dumpToFile(final String fileName) {
+	public void dumpToFile(final String fileName, final LogDumper.Format format) {
+		if (dumpThread != null && dumpThread.isAlive()) {
+			terminal.printError("A dump is already running");
+			return;
+		}
 		final Path path = Paths.get(fileName);
 		
 		if (path.toFile().exists()) {
@@ -273,68 +822,249 @@ public class ConsoleOutputRunner implements Runnable {
 			}
 		}
 		
-		int entries = 0;
-		final long start = System.currentTimeMillis();
-		try (final FileOutputStream fos = new FileOutputStream(path.toFile())) {
-			for (final Iterator<LogMessage> iterator = logMessages.iterator(); iterator.hasNext();) {
-				final LogMessage msg = iterator.next();
-				if (shouldOutput(msg)) {
-					msg.toLogOutput(fos, logConfig);
-					++entries;
-				}
-			}
-			terminal.printInfo("wrote " + entries + " log entries in " + (System.currentTimeMillis() - start) + "ms");
+		dumpThread = new Thread(new LogDumper(terminal, logConfig, logBuffer.snapshot(), path, format), "log-dumper");
+		dumpThread.setDaemon(true);
+		dumpThread.start();
+	}
+
+	/**
+	 * Starts recording every received log event, regardless of the filter settings, to rotating
+	 * segment files in the given directory.
+	 * 
+	 * @param directory the directory to record to
+	 */
+	public void startRecording(final String directory) {
+		if (recorder != null) {
+			terminal.printError("Already recording to " + recorder.getDirectory());
+			return;
+		}
+		try {
+			final LogRecorder logRecorder = new LogRecorder(Paths.get(directory));
+			logRecorder.start();
+			recorder = logRecorder;
+			terminal.printInfo("Recording to " + logRecorder.getDirectory());
 		} catch (final IOException e) {
-			terminal.printError("Could not dump log " + e.getMessage());
+			terminal.printError("Could not start recording " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Stops recording and waits until all queued log events are written.
+	 */
+	public void stopRecording() {
+		final LogRecorder logRecorder = recorder;
+		if (logRecorder == null) {
+			terminal.printError("Not recording");
+			return;
+		}
+		recorder = null;
+		logRecorder.close();
+		showRecording(logRecorder);
+	}
+	
+	public void showRecording() {
+		final LogRecorder logRecorder = recorder;
+		if (logRecorder == null) {
+			terminal.printInfo("Not recording");
+			return;
+		}
+		showRecording(logRecorder);
+	}
+	
+	private void showRecording(final LogRecorder logRecorder) {
+		final String state = logRecorder.isRunning() ? "Recording to " : "Recorded to ";
+		terminal.printInfo(state + logRecorder.getDirectory() + ": " + logRecorder.getRecorded() + " log entries");
+		if (logRecorder.getDropped() > 0) {
+			terminal.printWarning(logRecorder.getDropped() + " log entries dropped because the disk was too slow");
+		}
+		if (logRecorder.getFailure() != null) {
+			terminal.printError("Recording failed " + logRecorder.getFailure().getMessage());
 		}
 	}
 
 	@Override
 	public void run() {
-		try (final DataInputStream dis = new DataInputStream(is)) {
-			boolean connected = true;
-			while (connected) {
-				try {
-					final int len = dis.readInt();
-					final byte[] data = new byte[len];
-					dis.readFully(data);
-					final Object object = MechRainFory.deserialize(data);
-					if (object instanceof LogEvent event) {
-						final LogMessage msg = new LogMessage(event);
-						if (logMessages.size() > MAX_MESSAGES) {
-							logMessages.removeFirst();
-						}
-						logMessages.add(msg);
-						if (updateConsole && shouldOutput(msg)) {
-							msg.toConsoleOutput(terminal, logConfig);
-						}
-					} else if (object instanceof DeviceListResponse devListResponse) {
-						handleDeviceListResponse(devListResponse);
-					} else if (object instanceof DeviceConfigResponse deviceConfigResponse) {
-						handleDeviceConfigResponse(deviceConfigResponse);
-					} else if (object instanceof ConsoleRequest consoleRequest) {
-						final String response = terminal.readLine(consoleRequest.getRequest() + '>');
-						final ConsoleResponse consoleResponse = new ConsoleResponse();
-						consoleResponse.setResponse(response);
-						MechRainFory.serializeAndSend(consoleResponse, dos);
-					} else if (object instanceof SwitchToNonInteractiveRequest) {
-						terminal.setInteractive(false);
-					} else {
-						terminal.printError("Unhandled object " + object.getClass().getName());
-					}
-				} catch (final DeserializationException e) {
-					terminal.printError("Connection lost " + e.getMessage());
-					connected = false;
+		final Thread rendererThread = new Thread(renderer, "console-renderer");
+		rendererThread.setDaemon(true);
+		rendererThread.start();
+		if (replayer != null) {
+			replay();
+			stopRenderer(rendererThread);
+			return;
+		}
+		try {
+			while (true) {
+				final LogMessage msg = merger.poll(LogThrottle.REPEAT_SUMMARY_MILLIS);
+				if (msg != null) {
+					ingest(msg);
+				} else if (merger.isFinished()) {
 					break;
+				} else {
+					throttle.flush();
 				}
 			}
-		} catch (IOException e1) {
-			e1.printStackTrace();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
+		throttle.flush();
+		requestExecutor.shutdownNow();
+		reconnector.shutdownNow();
+		close();
+		stopRenderer(rendererThread);
 		terminal.printWarning("Output runner stopped");
 		terminal.setInteractive(false);
 	}
 	
+	/**
+	 * Receives the frames of one connection on the engine thread. Log events are handed to the
+	 * merger, everything else to the request executor.
+	 * <p>
+	 * The protocol has no way to request the events after a given one, so after a reconnect
+	 * events the buffer already holds from this server, not newer than the last one received,
+	 * are skipped.
+	 */
+	private final class Handler implements ServerConnection.FrameHandler {
+		
+		private final LogMerger.Source source;
+		private final long since;
+		private LogMessage resumeAfter;
+		private boolean first = true;
+		private long skipped;
+		
+		Handler(final LogMerger.Source source, final long since, final LogMessage resumeAfter) {
+			this.source = source;
+			this.since = since;
+			this.resumeAfter = resumeAfter;
+		}
+		
+		@Override
+		public void frame(final ServerConnection connection, final Object frame) {
+			if (frame instanceof LogEvent event) {
+				/* with a single server the tag would only repeat on every line */
+				final LogMessage msg = new LogMessage(event, servers.size() > 1 ? connection.getTag() : null);
+				if (resumeAfter != null) {
+					if (msg.getTimestamp() < resumeAfter.getTimestamp()
+							|| msg.getTimestamp() == resumeAfter.getTimestamp() && msg.getText().equals(resumeAfter.getText())) {
+						skipped++;
+						return;
+					}
+					resumeAfter = null;
+				}
+				if (first) {
+					first = false;
+					terminal.printInfo("First log from " + connection.getTag() + " after " + (System.nanoTime() - since) / 1_000_000 + "ms"
+							+ (skipped > 0 ? ", skipped " + skipped + " already received" : ""));
+				}
+				connection.countReceived();
+				lastReceived.put(connection.getTag(), msg);
+				source.offer(msg);
+				return;
+			}
+			requestExecutor.execute(() -> {
+				try {
+					handle(connection, frame);
+				} catch (final IOException e) {
+					terminal.printError("Could not answer " + connection.getTag() + " " + e.getMessage());
+				}
+			});
+		}
+		
+		@Override
+		public void closed(final ServerConnection connection, final Exception cause) {
+			if (cause instanceof EOFException) {
+				terminal.printError("Connection to " + connection.getTag() + " lost, reconnecting");
+			} else if (cause != null) {
+				terminal.printError("Connection to " + connection.getTag() + " lost " + cause.getMessage() + ", reconnecting");
+			}
+			source.close();
+			tracker.fail(connection, cause);
+			if (cause != null) {
+				scheduleReconnect(connection.getTag(), connection.getAddress(), System.nanoTime(), 0, generation.get());
+			}
+		}
+	}
+	
+	/**
+	 * Releases the log buffer and stops a running recording.
+	 */
+	public void close() {
+		logBuffer.close();
+		if (recorder != null) {
+			stopRecording();
+		}
+	}
+	
+	private void stopRenderer(final Thread rendererThread) {
+		renderer.stop();
+		try {
+			rendererThread.join(1_000);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private void handle(final ServerConnection connection, final Object object) throws IOException {
+		if (tracker.complete(connection, object)) {
+			return;
+		}
+		if (object instanceof DeviceListResponse devListResponse) {
+			handleDeviceListResponse(devListResponse);
+		} else if (object instanceof DeviceConfigResponse deviceConfigResponse) {
+			handleDeviceConfigResponse(deviceConfigResponse);
+		} else if (object instanceof ConsoleRequest consoleRequest) {
+			final String response = terminal.readLine(consoleRequest.getRequest() + '>');
+			final ConsoleResponse consoleResponse = new ConsoleResponse();
+			consoleResponse.setResponse(response);
+			connection.send(consoleResponse);
+		} else if (object instanceof SwitchToNonInteractiveRequest) {
+			terminal.setInteractive(false);
+		} else {
+			terminal.printError("Unhandled object " + object.getClass().getName());
+		}
+	}
+	
+	/**
+	 * Records a received log message and extracts its sensor readings, then passes it through the
+	 * {@link LogThrottle} to the buffer and the terminal. Must only be called from the runner
+	 * thread.
+	 * 
+	 * @param msg the log message
+	 */
+	public void ingest(final LogMessage msg) {
+		metrics.accept(msg);
+		final LogRecorder logRecorder = recorder;
+		if (logRecorder != null) {
+			logRecorder.record(msg);
+		}
+		throttle.accept(msg);
+	}
+	
+	/**
+	 * Appends a message passing the throttle to the buffer and renders it if it passes the filter.
+	 */
+	private void store(final LogMessage msg) {
+		logBuffer.append(msg);
+		if (updateConsole && shouldOutput(msg)) {
+			renderer.submit(msg);
+		}
+	}
+	
+	private void replay() {
+		final long start = System.nanoTime();
+		try {
+			replayer.replay(this::ingest);
+			throttle.flush();
+		} catch (final IOException e) {
+			terminal.printError("Could not replay " + replayer.getPath() + " " + e.getMessage());
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		final long millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+		final long count = replayer.getCount();
+		terminal.printInfo("Replayed " + count + " log entries in " + millis + "ms (" + count * 1000 / millis + " entries/s)"
+				+ (replayer.getSkipped() > 0 ? ", skipped " + replayer.getSkipped() + " other lines or frames" : ""));
+	}
+	
 	/**
 	 * Handles the device list response by formatting and displaying the device information in a table.
 	 * 
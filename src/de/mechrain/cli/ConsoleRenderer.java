@@ -0,0 +1,116 @@
+package de.mechrain.cli;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jline.utils.AttributedStringBuilder;
+import org.jline.utils.AttributedStyle;
+
+/**
+ * Renders log messages on a dedicated thread so a slow terminal doesn't back-pressure the
+ * connection to the server.
+ * <p>
+ * Messages are handed over through a bounded queue. Once per frame all pending messages are
+ * coalesced into a single {@link AttributedStringBuilder} and printed with one
+ * {@link MechRainTerminal#printAbove(AttributedStringBuilder)} call. If the renderer falls behind
+ * and the queue is full, further messages are not rendered (they are still in the buffer) and a
+ * "lines suppressed" notice is printed with the next frame.
+ */
+public class ConsoleRenderer implements Runnable {
+
+	private static final long FRAME_MILLIS = 16;
+	private static final int QUEUE_CAPACITY = 8192;
+
+	private final MechRainTerminal terminal;
+	private final LogConfig logConfig;
+	private final BlockingQueue<LogMessage> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+	private final List<LogMessage> batch = new ArrayList<>(QUEUE_CAPACITY);
+	private final AtomicLong suppressed = new AtomicLong();
+	private final AtomicLong totalSuppressed = new AtomicLong();
+
+	private volatile boolean running = true;
+	private long lastFrame;
+
+	public ConsoleRenderer(final MechRainTerminal terminal, final LogConfig logConfig) {
+		this.terminal = terminal;
+		this.logConfig = logConfig;
+	}
+
+	/**
+	 * Queues a message for rendering without blocking.
+	 *
+	 * @param msg the message to render
+	 */
+	public void submit(final LogMessage msg) {
+		if ( ! queue.offer(msg)) {
+			suppressed.incrementAndGet();
+			totalSuppressed.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return the number of lines not rendered because the renderer fell behind
+	 */
+	public long getTotalSuppressed() {
+		return totalSuppressed.get();
+	}
+
+	/**
+	 * Stops the renderer after the pending messages have been rendered.
+	 */
+	public void stop() {
+		running = false;
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				final LogMessage first = queue.poll(FRAME_MILLIS * 10, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				/* wait for the frame tick so everything arriving until then is coalesced */
+				final long wait = lastFrame + FRAME_MILLIS - System.currentTimeMillis();
+				if (wait > 0) {
+					Thread.sleep(wait);
+				}
+				renderFrame();
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		renderFrame();
+	}
+
+	private void renderFrame() {
+		queue.drainTo(batch);
+		final long suppressedLines = suppressed.getAndSet(0);
+		if (batch.isEmpty() && suppressedLines == 0) {
+			return;
+		}
+		final AttributedStringBuilder asb = new AttributedStringBuilder();
+		for (int i = 0; i < batch.size(); i++) {
+			if (i > 0) {
+				asb.append('\n');
+			}
+			batch.get(i).appendConsoleOutput(asb, logConfig);
+		}
+		if (suppressedLines > 0) {
+			if ( ! batch.isEmpty()) {
+				asb.append('\n');
+			}
+			asb.style(AttributedStyle.BOLD.foreground(AttributedStyle.YELLOW));
+			asb.append(suppressedLines + " lines suppressed (terminal too slow), still kept in buffer");
+			asb.style(AttributedStyle.DEFAULT);
+		}
+		batch.clear();
+		terminal.printAbove(asb);
+		lastFrame = System.currentTimeMillis();
+	}
+}
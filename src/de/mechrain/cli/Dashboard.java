@@ -0,0 +1,231 @@
+package de.mechrain.cli;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jline.keymap.BindingReader;
+import org.jline.keymap.KeyMap;
+import org.jline.terminal.Attributes;
+import org.jline.terminal.Size;
+import org.jline.terminal.Terminal;
+import org.jline.utils.AttributedString;
+import org.jline.utils.AttributedStringBuilder;
+import org.jline.utils.AttributedStyle;
+import org.jline.utils.Display;
+import org.jline.utils.InfoCmp.Capability;
+import org.jline.utils.NonBlockingReader;
+
+/**
+ * Full screen dashboard with a sparkline and a gauge per sensor series.
+ * <p>
+ * The screen is redrawn at a fixed frame rate from the pre-aggregated 10 second buckets of the
+ * {@link TimeSeries}, one bucket per sparkline column. Raw readings are never looked at, so a
+ * frame costs the same no matter how long the CLI has been running.
+ */
+public class Dashboard {
+
+	private enum Op {
+		UP,
+		DOWN,
+		PAGE_UP,
+		PAGE_DOWN,
+		QUIT
+	}
+
+	private static final long FRAME_MILLIS = 250;
+	private static final int LINES_PER_SERIES = 2;
+	private static final int GAUGE_WIDTH = 20;
+	private static final int VALUE_WIDTH = 10;
+	private static final char[] SPARKS = { '▁', '▂', '▃', '▄', '▅', '▆', '▇', '█' };
+	private static final char GAUGE_FULL = '█';
+	private static final char GAUGE_EMPTY = '░';
+	private static final String HELP = "q quit  Up/Down PgUp/PgDn scroll";
+
+	private final Terminal terminal;
+	private final MetricStore metrics;
+	private final Display display;
+	private final BindingReader bindingReader;
+	private final KeyMap<Op> keyMap = new KeyMap<>();
+	private final Stats window = new Stats();
+
+	private Stats[] buckets = new Stats[0];
+	private int firstSeries;
+	private int visibleSeries;
+
+	public Dashboard(final Terminal terminal, final MetricStore metrics) {
+		this.terminal = terminal;
+		this.metrics = metrics;
+		this.display = new Display(terminal, true);
+		this.bindingReader = new BindingReader(terminal.reader());
+		bind(Op.UP, Capability.key_up, "k", "\033[A", "\033OA");
+		bind(Op.DOWN, Capability.key_down, "j", "\033[B", "\033OB");
+		bind(Op.PAGE_UP, Capability.key_ppage, "b", "\033[5~");
+		bind(Op.PAGE_DOWN, Capability.key_npage, " ", "f", "\033[6~");
+		keyMap.bind(Op.QUIT, "q", KeyMap.ctrl('C'));
+	}
+
+	private void bind(final Op op, final Capability capability, final String... keys) {
+		final String key = KeyMap.key(terminal, capability);
+		if (key != null && ! key.isEmpty()) {
+			keyMap.bind(op, key);
+		}
+		for (final String fallback : keys) {
+			keyMap.bindIfNotBound(op, fallback);
+		}
+	}
+
+	/**
+	 * Shows the dashboard until the user quits.
+	 */
+	public void run() {
+		final Attributes attributes = terminal.enterRawMode();
+		terminal.puts(Capability.enter_ca_mode);
+		terminal.puts(Capability.keypad_xmit);
+		terminal.puts(Capability.cursor_invisible);
+		terminal.flush();
+		try {
+			long nextFrame = System.currentTimeMillis();
+			while (true) {
+				final long now = System.currentTimeMillis();
+				if (now >= nextFrame) {
+					render();
+					nextFrame = Math.max(nextFrame + FRAME_MILLIS, now);
+				}
+				final int c = bindingReader.peekCharacter(Math.max(1, nextFrame - System.currentTimeMillis()));
+				if (c == NonBlockingReader.READ_EXPIRED) {
+					continue;
+				}
+				if (c == NonBlockingReader.EOF) {
+					break;
+				}
+				final Op op = bindingReader.readBinding(keyMap, null, false);
+				if (op == Op.QUIT) {
+					break;
+				}
+				if (op != null) {
+					scroll(op);
+					render();
+				}
+			}
+		} finally {
+			terminal.puts(Capability.cursor_visible);
+			terminal.puts(Capability.keypad_local);
+			terminal.puts(Capability.exit_ca_mode);
+			terminal.flush();
+			terminal.setAttributes(attributes);
+		}
+	}
+
+	private void scroll(final Op op) {
+		switch (op) {
+		case UP:
+			firstSeries--;
+			break;
+		case DOWN:
+			firstSeries++;
+			break;
+		case PAGE_UP:
+			firstSeries -= Math.max(1, visibleSeries);
+			break;
+		case PAGE_DOWN:
+			firstSeries += Math.max(1, visibleSeries);
+			break;
+		default:
+			break;
+		}
+	}
+
+	private void render() {
+		final Size size = terminal.getSize();
+		final int rows = Math.max(3, size.getRows());
+		final int columns = Math.max(40, size.getColumns());
+		display.resize(rows, columns);
+
+		final List<TimeSeries> allSeries = metrics.getSeries();
+		visibleSeries = Math.max(1, (rows - 1) / LINES_PER_SERIES);
+		firstSeries = Math.max(0, Math.min(firstSeries, allSeries.size() - visibleSeries));
+
+		long end = Long.MIN_VALUE;
+		for (final TimeSeries series : allSeries) {
+			end = Math.max(end, series.getLastTimestamp());
+		}
+		final int sparkWidth = Math.min(TimeSeries.RECENT_BUCKETS, columns - GAUGE_WIDTH - VALUE_WIDTH - 4);
+		if (buckets.length != sparkWidth) {
+			buckets = new Stats[sparkWidth];
+			for (int i = 0; i < sparkWidth; i++) {
+				buckets[i] = new Stats();
+			}
+		}
+
+		final List<AttributedString> lines = new ArrayList<>(rows);
+		final AttributedStringBuilder header = new AttributedStringBuilder();
+		header.style(AttributedStyle.INVERSE);
+		header.append(StringUtils.rightPad("MechRain dashboard, " + sparkWidth * TimeSeries.RECENT_BUCKET_MILLIS / 60_000 + " min in "
+				+ TimeSeries.RECENT_BUCKET_MILLIS / 1000 + "s buckets" + (allSeries.isEmpty() ? ", no data units received yet" : "") + "   " + HELP, columns));
+		lines.add(header.toAttributedString().columnSubSequence(0, columns));
+
+		for (int i = firstSeries; i < allSeries.size() && i < firstSeries + visibleSeries; i++) {
+			renderSeries(allSeries.get(i), end, columns, lines);
+		}
+		while (lines.size() < rows) {
+			lines.add(AttributedString.EMPTY);
+		}
+		display.update(lines, -1);
+		terminal.flush();
+	}
+
+	private void renderSeries(final TimeSeries series, final long end, final int columns, final List<AttributedString> lines) {
+		series.readRecent(end, buckets);
+		window.reset();
+		for (final Stats bucket : buckets) {
+			window.add(bucket);
+		}
+		final double last = series.getLastValue();
+
+		final AttributedStringBuilder title = new AttributedStringBuilder();
+		title.style(AttributedStyle.BOLD.foreground(AttributedStyle.CYAN));
+		title.append(series.getMetric()).append(" @ ").append(series.getDevice());
+		title.style(AttributedStyle.DEFAULT);
+		title.append("  min ").append(MetricStore.format(window.getMin()))
+			.append("  avg ").append(MetricStore.format(window.getAvg()))
+			.append("  max ").append(MetricStore.format(window.getMax()))
+			.append("  readings ").append(String.valueOf(window.getCount()));
+		lines.add(title.toAttributedString().columnSubSequence(0, columns));
+
+		final AttributedStringBuilder chart = new AttributedStringBuilder();
+		chart.style(AttributedStyle.DEFAULT.foreground(AttributedStyle.GREEN));
+		final double low = window.getMin();
+		final double range = window.getMax() - low;
+		/* sensors report less often than the bucket width, empty buckets repeat the previous level */
+		int level = -1;
+		for (final Stats bucket : buckets) {
+			if (bucket.getCount() > 0) {
+				level = range > 0 ? (int) Math.round((bucket.getAvg() - low) / range * (SPARKS.length - 1)) : SPARKS.length / 2;
+			}
+			chart.append(level >= 0 ? SPARKS[level] : ' ');
+		}
+		chart.style(AttributedStyle.DEFAULT);
+		chart.append(' ');
+		appendGauge(chart, series.getMetric(), last);
+		chart.append(' ').append(StringUtils.leftPad(MetricStore.format(last), VALUE_WIDTH));
+		lines.add(chart.toAttributedString().columnSubSequence(0, columns));
+	}
+
+	/**
+	 * Percent metrics are shown on a 0 to 100 scale, all others relative to the shown window.
+	 */
+	private void appendGauge(final AttributedStringBuilder asb, final String metric, final double value) {
+		final boolean percent = metric.toLowerCase(Locale.ROOT).endsWith("percent");
+		final double low = percent ? 0 : window.getMin();
+		final double high = percent ? 100 : window.getMax();
+		final double fraction = Double.isNaN(value) ? 0 : high > low ? (value - low) / (high - low) : 1;
+		final int filled = (int) Math.round(Math.max(0, Math.min(1, fraction)) * GAUGE_WIDTH);
+		asb.style(AttributedStyle.DEFAULT.foreground(AttributedStyle.YELLOW));
+		for (int i = 0; i < GAUGE_WIDTH; i++) {
+			asb.append(i < filled ? GAUGE_FULL : GAUGE_EMPTY);
+		}
+		asb.style(AttributedStyle.DEFAULT);
+	}
+}
@@ -0,0 +1,156 @@
+package de.mechrain.cli;
+
+/**
+ * Extracts sensor readings from the data unit messages logged by the server, e.g.
+ *
+ * <pre>
+ * Received data unit - SoilMoistureAbsDataUnit length: 1 soilMoistureAbs: 2522
+ * </pre>
+ *
+ * Every numeric <code>field: value</code> pair behind the length is a reading. The device is taken
+ * from a <code>device &lt;id&gt;</code> token in the text, messages without one are attributed to
+ * the logger name. With several servers merged the device is prefixed with the server tag, e.g.
+ * <code>garden/device 3</code>, so equal device ids of different servers stay apart. The text is
+ * scanned in place, nothing is allocated for other messages.
+ */
+final class DataUnitParser {
+
+	static final String PREFIX = "Received data unit - ";
+
+	private static final String LENGTH = "length:";
+	private static final String DEVICE = "device ";
+
+	/**
+	 * Receives the readings of a message.
+	 */
+	interface Sink {
+		void accept(String device, String metric, long timestamp, double value);
+	}
+
+	private DataUnitParser() {
+	}
+
+	/**
+	 * @param msg the log message
+	 * @param sink the receiver of the readings
+	 * @return the number of readings found
+	 */
+	static int parse(final LogMessage msg, final Sink sink) {
+		final String text = msg.getText();
+		if (text == null) {
+			return 0;
+		}
+		final int start = text.indexOf(PREFIX);
+		if (start < 0) {
+			return 0;
+		}
+		int pos = text.indexOf(LENGTH, start + PREFIX.length());
+		if (pos < 0) {
+			return 0;
+		}
+		pos = skipToken(text, skipWhitespace(text, pos + LENGTH.length()));
+
+		final String device = msg.getServer() != null
+				? msg.getServer() + '/' + device(text, msg.getLoggerName())
+				: device(text, msg.getLoggerName());
+		int readings = 0;
+		final int len = text.length();
+		while ((pos = skipWhitespace(text, pos)) < len) {
+			final int nameStart = pos;
+			while (pos < len && Character.isLetterOrDigit(text.charAt(pos))) {
+				pos++;
+			}
+			if (pos == nameStart || pos >= len || text.charAt(pos) != ':') {
+				pos = skipToken(text, pos);
+				continue;
+			}
+			final int nameEnd = pos;
+			final int valueStart = skipWhitespace(text, pos + 1);
+			final int valueEnd = skipToken(text, valueStart);
+			int numberEnd = valueEnd;
+			if (numberEnd > valueStart && (text.charAt(numberEnd - 1) == ',' || text.charAt(numberEnd - 1) == ';')) {
+				numberEnd--;
+			}
+			final double value = parseNumber(text, valueStart, numberEnd);
+			if ( ! Double.isNaN(value)) {
+				sink.accept(device, text.substring(nameStart, nameEnd), msg.getTimestamp(), value);
+				readings++;
+			}
+			pos = valueEnd;
+		}
+		return readings;
+	}
+
+	private static String device(final String text, final String loggerName) {
+		final int len = text.length();
+		for (int i = text.indexOf(' '); i >= 0 && i < len; i = text.indexOf(' ', i + 1)) {
+			final int start = i + 1;
+			if (text.regionMatches(true, start, DEVICE, 0, DEVICE.length())) {
+				final int idStart = start + DEVICE.length();
+				int idEnd = idStart;
+				while (idEnd < len && Character.isDigit(text.charAt(idEnd))) {
+					idEnd++;
+				}
+				if (idEnd > idStart) {
+					return "device " + text.substring(idStart, idEnd);
+				}
+			}
+		}
+		return loggerName != null ? loggerName : "";
+	}
+
+	/**
+	 * Parses a decimal number without creating a substring.
+	 *
+	 * @return the value or NaN if the token is not a number
+	 */
+	static double parseNumber(final String text, final int start, final int end) {
+		int pos = start;
+		boolean negative = false;
+		if (pos < end && (text.charAt(pos) == '-' || text.charAt(pos) == '+')) {
+			negative = text.charAt(pos) == '-';
+			pos++;
+		}
+		long mantissa = 0;
+		int scale = 0;
+		int digits = 0;
+		boolean fraction = false;
+		for (; pos < end; pos++) {
+			final char c = text.charAt(pos);
+			if (c >= '0' && c <= '9') {
+				if (digits < 18) {
+					mantissa = mantissa * 10 + (c - '0');
+					digits++;
+					if (fraction) {
+						scale++;
+					}
+				} else if ( ! fraction) {
+					scale--;
+				}
+			} else if (c == '.' && ! fraction) {
+				fraction = true;
+			} else {
+				return Double.NaN;
+			}
+		}
+		if (digits == 0) {
+			return Double.NaN;
+		}
+		final double value = scale >= 0 ? mantissa / Math.pow(10, scale) : mantissa * Math.pow(10, -scale);
+		return negative ? -value : value;
+	}
+
+	private static int skipWhitespace(final String text, int pos) {
+		while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+			pos++;
+		}
+		return pos;
+	}
+
+	private static int skipToken(final String text, int pos) {
+		while (pos < text.length() && ! Character.isWhitespace(text.charAt(pos))) {
+			pos++;
+		}
+		return pos;
+	}
+}
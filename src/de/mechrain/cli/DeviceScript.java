@@ -0,0 +1,194 @@
+package de.mechrain.cli;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+
+import de.mechrain.cmdline.beans.DeviceConfigRequest;
+import de.mechrain.cmdline.beans.DeviceResetRequest;
+import de.mechrain.cmdline.beans.EndConfigureDeviceRequest;
+import de.mechrain.cmdline.beans.RemoveDeviceRequest;
+import de.mechrain.cmdline.beans.RemoveSinkRequest;
+import de.mechrain.cmdline.beans.RemoveTaskRequest;
+import de.mechrain.cmdline.beans.SetDescriptionRequest;
+import de.mechrain.cmdline.beans.SetIdRequest;
+import de.mechrain.cmdline.beans.SetLedAllRgbRequest;
+import de.mechrain.cmdline.beans.SetLedMode1Request;
+import de.mechrain.cmdline.beans.SetNumPixelsRequest;
+
+/**
+ * A command file (<code>.mrc</code>) for provisioning devices, parsed once into the request
+ * beans to send.
+ * <p>
+ * The file consists of device sections using the same commands as the prompt in device mode.
+ * Empty lines and lines starting with <code>#</code> are ignored.
+ *
+ * <pre>
+ * config device 3
+ * set pixels 30
+ * set description Kitchen window
+ * rgb 255 128 0
+ * exit
+ * </pre>
+ *
+ * A section ends with <code>exit</code> or <code>remove device</code>. The interactive
+ * <code>add sink</code> and <code>add task</code> are not supported.
+ */
+final class DeviceScript {
+
+	private final List<Section> sections;
+
+	private DeviceScript(final List<Section> sections) {
+		this.sections = sections;
+	}
+
+	List<Section> getSections() {
+		return sections;
+	}
+
+	/**
+	 * Reads and parses a command file.
+	 *
+	 * @param path the file
+	 * @return the script
+	 * @throws IOException if the file can't be read
+	 * @throws IllegalArgumentException if the file contains an invalid command
+	 */
+	static DeviceScript parse(final Path path) throws IOException {
+		return new DeviceScript(parse(Files.readAllLines(path, StandardCharsets.UTF_8)));
+	}
+
+	static List<Section> parse(final List<String> lines) {
+		final List<Section> sections = new ArrayList<>();
+		Section section = null;
+		for (int i = 0; i < lines.size(); i++) {
+			final int lineNumber = i + 1;
+			final String line = lines.get(i).trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			final String[] splits = line.split("\\s+");
+			if (section == null) {
+				if (splits.length != 3 || ! splits[0].equalsIgnoreCase(MechRainTerminal.CONFIG) || ! splits[1].equalsIgnoreCase("device")) {
+					throw error(lineNumber, "expected 'config device <id>' but got '" + line + "'");
+				}
+				final int deviceId = parseInt(lineNumber, splits[2], "device id");
+				final DeviceConfigRequest request = new DeviceConfigRequest();
+				request.setDeviceId(deviceId);
+				section = new Section(lineNumber, deviceId, new Command(lineNumber, line, request));
+				sections.add(section);
+				continue;
+			}
+			final Object request = parseDeviceCommand(lineNumber, splits);
+			section.commands.add(new Command(lineNumber, line, request));
+			if (request instanceof EndConfigureDeviceRequest || request instanceof RemoveDeviceRequest) {
+				section = null;
+			}
+		}
+		if (section != null) {
+			throw error(lines.size(), "missing 'exit' for 'config device " + section.deviceId + "' in line " + section.line);
+		}
+		return Collections.unmodifiableList(sections);
+	}
+
+	private static Object parseDeviceCommand(final int line, final String[] splits) {
+		switch (splits[0].toLowerCase()) {
+		case "exit":
+			return new EndConfigureDeviceRequest();
+		case "reset":
+			return new DeviceResetRequest();
+		case "add":
+			throw error(line, "'add' is interactive and not supported in scripts");
+		case "remove":
+			if (splits.length == 2 && splits[1].equalsIgnoreCase("device")) {
+				return RemoveDeviceRequest.INSTANCE;
+			}
+			if (splits.length != 3) {
+				throw error(line, "expected 3 arguments but got " + splits.length);
+			}
+			switch (splits[1].toLowerCase()) {
+			case "sink":
+				return new RemoveSinkRequest(parseInt(line, splits[2], "id"));
+			case "task":
+				return new RemoveTaskRequest(parseInt(line, splits[2], "id"));
+			default:
+				throw error(line, "unknown remove option '" + splits[1] + "'");
+			}
+		case "set":
+			if (splits.length < 3) {
+				throw error(line, "expected 3 arguments but got " + splits.length);
+			}
+			switch (splits[1].toLowerCase()) {
+			case "id":
+				return new SetIdRequest(parseInt(line, splits[2], "id"));
+			case "description":
+				return new SetDescriptionRequest(StringUtils.join(splits, ' ', 2, splits.length));
+			case "pixels":
+				return new SetNumPixelsRequest(parseInt(line, splits[2], "number of pixels"));
+			default:
+				throw error(line, "unknown set option '" + splits[1] + "'");
+			}
+		case "rgb":
+			if (splits.length == 2) {
+				parseInt(line, splits[1], "LED mode");
+				return SetLedMode1Request.INSTANCE;
+			}
+			if (splits.length == 4) {
+				return new SetLedAllRgbRequest(parseInt(line, splits[1], "red value"), parseInt(line, splits[2], "green value"), parseInt(line, splits[3], "blue value"));
+			}
+			throw error(line, "expected 2 or 4 arguments but got " + splits.length);
+		default:
+			throw error(line, "unknown option '" + splits[0] + "'");
+		}
+	}
+
+	private static int parseInt(final int line, final String value, final String what) {
+		try {
+			return Integer.parseInt(value);
+		} catch (final NumberFormatException e) {
+			throw error(line, "not a valid " + what + " '" + value + "'");
+		}
+	}
+
+	private static IllegalArgumentException error(final int line, final String message) {
+		return new IllegalArgumentException(message + " in line " + line);
+	}
+
+	/**
+	 * The commands for one device, starting with the config request.
+	 */
+	static final class Section {
+
+		final int line;
+		final int deviceId;
+		final List<Command> commands = new ArrayList<>();
+
+		Section(final int line, final int deviceId, final Command config) {
+			this.line = line;
+			this.deviceId = deviceId;
+			commands.add(config);
+		}
+	}
+
+	/**
+	 * A line of the script and its request bean.
+	 */
+	static final class Command {
+
+		final int line;
+		final String text;
+		final Object request;
+
+		Command(final int line, final String text, final Object request) {
+			this.line = line;
+			this.text = text;
+			this.request = request;
+		}
+	}
+}
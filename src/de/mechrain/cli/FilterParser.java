@@ -0,0 +1,282 @@
+package de.mechrain.cli;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.logging.log4j.spi.StandardLevel;
+
+import de.mechrain.cli.LogFilters.Field;
+
+/**
+ * Compiles filter expressions into a {@link LogFilter} tree.
+ *
+ * <pre>
+ * expr    := and ( '||' and )*
+ * and     := unary ( '&amp;&amp;' unary )*
+ * unary   := '!' unary | '(' expr ')' | term
+ * term    := 'level' op level
+ *          | field ':' string ( ',' string )* [i]     contains any of the terms
+ *          | field '~' string [i]                     regular expression
+ * field   := 'logger' | 'text' | 'server'
+ * op      := '&gt;=' | '&lt;=' | '&gt;' | '&lt;' | '=' | '==' | '!='
+ * level   := 'off' | 'fatal' | 'err' | 'error' | 'warn' | 'info' | 'debug' | 'trace' | 'all'
+ * string  := '"' chars '"' | word
+ * </pre>
+ *
+ * A trailing <code>i</code> directly after a quoted string makes the match case insensitive,
+ * e.g. <code>level&gt;=warn &amp;&amp; logger~"mechrain.udp" &amp;&amp; !text:"heartbeat"i</code>.
+ */
+public final class FilterParser {
+
+	private static final StandardLevel[] LEVELS = StandardLevel.values();
+
+	private final String input;
+	private int pos;
+
+	private FilterParser(final String input) {
+		this.input = input;
+	}
+
+	/**
+	 * @param expression the filter expression
+	 * @return the compiled filter
+	 * @throws IllegalArgumentException if the expression is invalid
+	 */
+	public static LogFilter parse(final String expression) {
+		if (expression == null || expression.isBlank()) {
+			return LogFilter.ACCEPT_ALL;
+		}
+		final FilterParser parser = new FilterParser(expression);
+		final LogFilter filter = parser.parseOr();
+		parser.skipWhitespace();
+		if (parser.pos < parser.input.length()) {
+			throw parser.error("unexpected '" + parser.input.charAt(parser.pos) + "'");
+		}
+		return filter;
+	}
+
+	private LogFilter parseOr() {
+		final List<LogFilter> filters = new ArrayList<>();
+		filters.add(parseAnd());
+		while (consume("||")) {
+			filters.add(parseAnd());
+		}
+		return LogFilters.or(filters);
+	}
+
+	private LogFilter parseAnd() {
+		final List<LogFilter> filters = new ArrayList<>();
+		filters.add(parseUnary());
+		while (consume("&&")) {
+			filters.add(parseUnary());
+		}
+		return LogFilters.and(filters);
+	}
+
+	private LogFilter parseUnary() {
+		if (consume("!")) {
+			return LogFilters.not(parseUnary());
+		}
+		if (consume("(")) {
+			final LogFilter filter = parseOr();
+			if ( ! consume(")")) {
+				throw error("expected ')'");
+			}
+			return filter;
+		}
+		return parseTerm();
+	}
+
+	private LogFilter parseTerm() {
+		skipWhitespace();
+		final int start = pos;
+		while (pos < input.length() && Character.isLetter(input.charAt(pos))) {
+			pos++;
+		}
+		final String name = input.substring(start, pos).toLowerCase(Locale.ROOT);
+		switch (name) {
+		case "level":
+			return parseLevel();
+		case "logger":
+			return parseMatch(Field.LOGGER);
+		case "text":
+			return parseMatch(Field.TEXT);
+		case "server":
+			return parseMatch(Field.SERVER);
+		case "":
+			throw error("expected a term");
+		default:
+			pos = start;
+			throw error("unknown field '" + name + "'");
+		}
+	}
+
+	private LogFilter parseLevel() {
+		final String op;
+		if (consume(">=")) {
+			op = ">=";
+		} else if (consume("<=")) {
+			op = "<=";
+		} else if (consume("!=")) {
+			op = "!=";
+		} else if (consume("==") || consume("=")) {
+			op = "=";
+		} else if (consume(">")) {
+			op = ">";
+		} else if (consume("<")) {
+			op = "<";
+		} else {
+			throw error("expected a comparison operator");
+		}
+		final StandardLevel level = parseLevelName(readString());
+
+		/* log4j levels: a lower int level is more severe, level>=warn means warn or more severe */
+		final boolean[] accepted = new boolean[LEVELS.length];
+		for (final StandardLevel candidate : LEVELS) {
+			final int cmp = Integer.compare(level.intLevel(), candidate.intLevel());
+			switch (op) {
+			case ">=":
+				accepted[candidate.ordinal()] = cmp >= 0;
+				break;
+			case "<=":
+				accepted[candidate.ordinal()] = cmp <= 0;
+				break;
+			case ">":
+				accepted[candidate.ordinal()] = cmp > 0;
+				break;
+			case "<":
+				accepted[candidate.ordinal()] = cmp < 0;
+				break;
+			case "!=":
+				accepted[candidate.ordinal()] = cmp != 0;
+				break;
+			default:
+				accepted[candidate.ordinal()] = cmp == 0;
+				break;
+			}
+		}
+		return LogFilters.levels(accepted);
+	}
+
+	private StandardLevel parseLevelName(final String name) {
+		switch (name.toLowerCase(Locale.ROOT)) {
+		case "off":
+			return StandardLevel.OFF;
+		case "fatal":
+			return StandardLevel.FATAL;
+		case "err":
+		case "error":
+			return StandardLevel.ERROR;
+		case "warn":
+			return StandardLevel.WARN;
+		case "info":
+			return StandardLevel.INFO;
+		case "debug":
+			return StandardLevel.DEBUG;
+		case "trace":
+			return StandardLevel.TRACE;
+		case "all":
+			return StandardLevel.ALL;
+		default:
+			throw error("unknown level '" + name + "'");
+		}
+	}
+
+	private LogFilter parseMatch(final Field field) {
+		if (consume(":")) {
+			final List<String> terms = new ArrayList<>();
+			terms.add(readString());
+			boolean ignoreCase = readIgnoreCase();
+			while (consume(",")) {
+				terms.add(readString());
+				ignoreCase |= readIgnoreCase();
+			}
+			return LogFilters.contains(field, terms, ignoreCase);
+		}
+		if (consume("~")) {
+			final int start = pos;
+			final String regex = readString();
+			final boolean ignoreCase = readIgnoreCase();
+			try {
+				return LogFilters.regex(field, regex, ignoreCase);
+			} catch (final PatternSyntaxException e) {
+				pos = start;
+				throw error("invalid regular expression: " + e.getDescription());
+			}
+		}
+		throw error("expected ':' or '~'");
+	}
+
+	private String readString() {
+		skipWhitespace();
+		if (pos < input.length() && input.charAt(pos) == '"') {
+			final StringBuilder sb = new StringBuilder();
+			pos++;
+			while (pos < input.length()) {
+				final char c = input.charAt(pos++);
+				if (c == '"') {
+					if (sb.length() == 0) {
+						throw error("empty string");
+					}
+					return sb.toString();
+				}
+				if (c == '\\' && pos < input.length()) {
+					final char escaped = input.charAt(pos++);
+					if (escaped != '"' && escaped != '\\') {
+						/* keep the backslash for regular expressions like \d */
+						sb.append(c);
+					}
+					sb.append(escaped);
+				} else {
+					sb.append(c);
+				}
+			}
+			throw error("unterminated string");
+		}
+		final int start = pos;
+		while (pos < input.length() && isWordChar(input.charAt(pos))) {
+			pos++;
+		}
+		if (start == pos) {
+			throw error("expected a string");
+		}
+		return input.substring(start, pos);
+	}
+
+	/**
+	 * Checks for the case insensitive flag directly behind a quoted string.
+	 */
+	private boolean readIgnoreCase() {
+		if (pos > 0 && input.charAt(pos - 1) == '"' && pos < input.length() && input.charAt(pos) == 'i'
+				&& (pos + 1 == input.length() || ! isWordChar(input.charAt(pos + 1)))) {
+			pos++;
+			return true;
+		}
+		return false;
+	}
+
+	private static boolean isWordChar(final char c) {
+		return ! Character.isWhitespace(c) && "()&|!,\"".indexOf(c) < 0;
+	}
+
+	private boolean consume(final String token) {
+		skipWhitespace();
+		if (input.startsWith(token, pos)) {
+			pos += token.length();
+			return true;
+		}
+		return false;
+	}
+
+	private void skipWhitespace() {
+		while (pos < input.length() && Character.isWhitespace(input.charAt(pos))) {
+			pos++;
+		}
+	}
+
+	private IllegalArgumentException error(final String message) {
+		return new IllegalArgumentException(message + " at position " + pos);
+	}
+}
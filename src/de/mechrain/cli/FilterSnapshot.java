@@ -0,0 +1,139 @@
+package de.mechrain.cli;
+
+import java.util.List;
+
+import org.apache.logging.log4j.spi.StandardLevel;
+
+import de.mechrain.cli.LogConfig.FilterBy;
+
+/**
+ * Immutable filter and display settings with the filter compiled from them.
+ * <p>
+ * {@link LogConfig} publishes the current snapshot through a single volatile reference and
+ * replaces it on every change, so a thread evaluating or formatting messages reads one
+ * consistent set of settings without locking, e.g. never the new filter mode with the old
+ * filter string.
+ */
+public final class FilterSnapshot {
+
+	static final FilterSnapshot DEFAULT = new FilterSnapshot(StandardLevel.TRACE, FilterBy.DONT, "", true, true, LogConfig.DEFAULT_REDRAW_SCROLLBACK);
+
+	private final StandardLevel filterLevel;
+	private final FilterBy filterBy;
+	private final String filterString;
+	private final boolean showTime;
+	private final boolean showLoggerName;
+	private final int redrawScrollback;
+	private final LogFilter filter;
+
+	private FilterSnapshot(final StandardLevel filterLevel, final FilterBy filterBy, final String filterString, final boolean showTime, final boolean showLoggerName,
+			final int redrawScrollback) {
+		this.filterLevel = filterLevel;
+		this.filterBy = filterBy;
+		this.filterString = filterString;
+		this.showTime = showTime;
+		this.showLoggerName = showLoggerName;
+		this.redrawScrollback = redrawScrollback;
+		this.filter = compileFilter(filterLevel, filterBy, filterString);
+	}
+
+	private FilterSnapshot(final FilterSnapshot other, final boolean showTime, final boolean showLoggerName, final int redrawScrollback) {
+		this.filterLevel = other.filterLevel;
+		this.filterBy = other.filterBy;
+		this.filterString = other.filterString;
+		this.showTime = showTime;
+		this.showLoggerName = showLoggerName;
+		this.redrawScrollback = redrawScrollback;
+		/* the display settings don't affect the filter */
+		this.filter = other.filter;
+	}
+
+	FilterSnapshot withFilterLevel(final StandardLevel level) {
+		return new FilterSnapshot(level, filterBy, filterString, showTime, showLoggerName, redrawScrollback);
+	}
+
+	FilterSnapshot withFilter(final FilterBy by, final String string) {
+		return new FilterSnapshot(filterLevel, by, string, showTime, showLoggerName, redrawScrollback);
+	}
+
+	FilterSnapshot withShowTime(final boolean show) {
+		return new FilterSnapshot(this, show, showLoggerName, redrawScrollback);
+	}
+
+	FilterSnapshot withShowLoggerName(final boolean show) {
+		return new FilterSnapshot(this, showTime, show, redrawScrollback);
+	}
+
+	FilterSnapshot withRedrawScrollback(final int lines) {
+		return new FilterSnapshot(this, showTime, showLoggerName, lines);
+	}
+
+	/**
+	 * @param msg the log message
+	 * @return true if the message passes the filter
+	 */
+	public boolean test(final LogMessage msg) {
+		return filter.test(msg);
+	}
+
+	public StandardLevel getFilterLevel() {
+		return filterLevel;
+	}
+
+	public FilterBy getFilterBy() {
+		return filterBy;
+	}
+
+	public String getFilterString() {
+		return filterString;
+	}
+
+	public boolean isShowTime() {
+		return showTime;
+	}
+
+	public boolean isShowLoggerName() {
+		return showLoggerName;
+	}
+
+	/**
+	 * @return the number of lines printed on a redraw in addition to the visible terminal rows
+	 */
+	public int getRedrawScrollback() {
+		return redrawScrollback;
+	}
+
+	/**
+	 * @return the filter compiled from the filter level, filter mode and filter string
+	 */
+	public LogFilter getFilter() {
+		return filter;
+	}
+
+	private static LogFilter compileFilter(final StandardLevel filterLevel, final FilterBy filterBy, final String filterString) {
+		final LogFilter levelFilter = LogFilters.maxLevel(filterLevel);
+		final LogFilter textFilter = compileTextFilter(filterBy, filterString);
+		return textFilter == LogFilter.ACCEPT_ALL ? levelFilter : LogFilters.and(List.of(levelFilter, textFilter));
+	}
+
+	private static LogFilter compileTextFilter(final FilterBy filterBy, final String filterString) {
+		if (filterBy == null || filterString == null || filterString.isEmpty()) {
+			return LogFilter.ACCEPT_ALL;
+		}
+		switch (filterBy) {
+		case LOG_NAME:
+			return LogFilters.contains(LogFilters.Field.LOGGER, List.of(filterString), false);
+		case TEXT:
+			return LogFilters.contains(LogFilters.Field.TEXT, List.of(filterString), false);
+		case EXPRESSION:
+			try {
+				return FilterParser.parse(filterString);
+			} catch (final IllegalArgumentException e) {
+				e.printStackTrace();
+				return LogFilter.ACCEPT_ALL;
+			}
+		default:
+			return LogFilter.ACCEPT_ALL;
+		}
+	}
+}
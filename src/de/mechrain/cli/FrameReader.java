@@ -0,0 +1,59 @@
+package de.mechrain.cli;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import de.mechrain.cmdline.MechRainFory;
+
+/**
+ * Reads the length prefixed Fory frames sent by the server.
+ * <p>
+ * Frames are read into a single reusable array which only grows when a larger frame arrives, so
+ * no array is allocated per message. Fory only consumes the bytes of the serialized object, stale
+ * bytes behind the current frame are never looked at.
+ */
+public class FrameReader implements Closeable {
+
+	/** Upper bound for a single frame, protects against allocating huge arrays for corrupt lengths. */
+	public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+	private static final int INITIAL_BUFFER_SIZE = 4 * 1024;
+	private static final int RETAINED_BUFFER_SIZE = 1024 * 1024;
+	private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+	private final DataInputStream dis;
+	private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+	public FrameReader(final InputStream is) {
+		this.dis = new DataInputStream(new BufferedInputStream(is, STREAM_BUFFER_SIZE));
+	}
+
+	/**
+	 * Reads the next frame and deserializes it.
+	 *
+	 * @return the deserialized object
+	 * @throws IOException if the stream ends or the frame length is invalid
+	 */
+	public Object readFrame() throws IOException {
+		final int len = dis.readInt();
+		if (len < 0 || len > MAX_FRAME_SIZE) {
+			throw new IOException("Invalid frame length " + len + " (max " + MAX_FRAME_SIZE + ")");
+		}
+		if (len > buffer.length) {
+			buffer = new byte[Math.max(len, Math.min(buffer.length * 2, MAX_FRAME_SIZE))];
+		} else if (buffer.length > RETAINED_BUFFER_SIZE && len <= INITIAL_BUFFER_SIZE) {
+			/* don't hold on to the memory of a single huge frame */
+			buffer = new byte[INITIAL_BUFFER_SIZE];
+		}
+		dis.readFully(buffer, 0, len);
+		return MechRainFory.deserialize(buffer);
+	}
+
+	@Override
+	public void close() throws IOException {
+		dis.close();
+	}
+}
@@ -0,0 +1,389 @@
+package de.mechrain.cli;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.logging.log4j.spi.StandardLevel;
+
+/**
+ * Fixed capacity ring buffer holding the received log messages.
+ * <p>
+ * Entries are stored column wise in parallel primitive arrays and addressed by a monotonically
+ * increasing sequence number, so appending and evicting are O(1) and don't allocate. The buffer
+ * supports a single writer (the output runner thread) and any number of readers, which access
+ * the content through a {@link Snapshot}.
+ * <p>
+ * If a {@link SpillStore} is attached, evicted entries are moved there instead of being dropped
+ * and snapshots transparently cover both tiers.
+ * <p>
+ * The in-memory tier is indexed by a {@link LogIndex}, so filtered reads only have to evaluate
+ * the candidate entries.
+ */
+public class LogBuffer implements Closeable {
+
+	public static final int DEFAULT_CAPACITY = 10_000;
+
+	private static final StandardLevel[] LEVELS = StandardLevel.values();
+	private static final int DESCENDING_CHUNK_SIZE = 256;
+
+	private final int capacity;
+	private final byte[] levels;
+	private final long[] timestamps;
+	/** Ids of the logger names in {@link LogDictionary#LOGGERS}. */
+	private final int[] loggerIds;
+	private final String[] servers;
+	private final String[] texts;
+	private final SpillStore spillStore;
+	private final LogIndex index;
+
+	/** Server tags, only touched by the writer thread. */
+	private final Map<String, String> namePool = new HashMap<>();
+
+	/** Sequence number of the next entry to be written. */
+	private volatile long writeSeq;
+	/** Lowest sequence number whose slot has not been (or is not being) overwritten. */
+	private volatile long validSeq;
+	/** Lowest sequence number that is still visible after the last {@link #clear()}. */
+	private volatile long clearSeq;
+
+	public LogBuffer(final int capacity) {
+		this(capacity, null);
+	}
+
+	/**
+	 * @param capacity the number of entries kept in memory
+	 * @param spillStore the store receiving evicted entries, may be <code>null</code>
+	 */
+	public LogBuffer(final int capacity, final SpillStore spillStore) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be positive but was " + capacity);
+		}
+		this.capacity = capacity;
+		this.levels = new byte[capacity];
+		this.timestamps = new long[capacity];
+		this.loggerIds = new int[capacity];
+		this.servers = new String[capacity];
+		this.texts = new String[capacity];
+		this.spillStore = spillStore;
+		this.index = new LogIndex(capacity);
+	}
+
+	/**
+	 * Appends a message, overwriting the oldest entry if the buffer is full. Must only be called
+	 * from the writer thread.
+	 *
+	 * @param msg the message to append
+	 */
+	public void append(final LogMessage msg) {
+		final long seq = writeSeq;
+		if (seq >= capacity) {
+			spill(seq - capacity);
+			/* invalidate the slot before touching it so concurrent readers can detect the overwrite */
+			validSeq = seq - capacity + 1;
+			VarHandle.storeStoreFence();
+		}
+		final int slot = slot(seq);
+		levels[slot] = (byte) msg.getLevel().ordinal();
+		timestamps[slot] = msg.getTimestamp();
+		loggerIds[slot] = msg.getLoggerId();
+		servers[slot] = intern(msg.getServer());
+		texts[slot] = msg.getText();
+		index.add(seq, Math.max(0, seq + 1 - capacity), msg.getLevel(), msg.getLoggerName(), msg.getText());
+		writeSeq = seq + 1;
+	}
+
+	private void spill(final long evictedSeq) {
+		if (spillStore == null || evictedSeq < clearSeq) {
+			return;
+		}
+		final int slot = slot(evictedSeq);
+		try {
+			spillStore.append(evictedSeq, servers[slot], LEVELS[levels[slot]], timestamps[slot], LogDictionary.LOGGERS.get(loggerIds[slot]), texts[slot]);
+		} catch (final IOException e) {
+			/* keep the in-memory tier working, the older history is just lost */
+			spillStore.discard();
+		}
+	}
+
+	/**
+	 * Hides all current entries. The slots are reclaimed lazily by subsequent appends.
+	 */
+	public void clear() {
+		clearSeq = writeSeq;
+		index.compact(clearSeq);
+		if (spillStore != null) {
+			spillStore.discard();
+		}
+	}
+
+	@Override
+	public void close() {
+		if (spillStore != null) {
+			spillStore.close();
+		}
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the spill store or <code>null</code> if evicted entries are dropped
+	 */
+	public SpillStore getSpillStore() {
+		return spillStore;
+	}
+
+	/**
+	 * @return the number of currently visible entries in memory
+	 */
+	public int size() {
+		final long end = writeSeq;
+		return (int) (end - Math.max(clearSeq, Math.max(0, end - capacity)));
+	}
+
+	/**
+	 * Captures the currently visible range of entries.
+	 *
+	 * @return a snapshot of the buffer
+	 */
+	public Snapshot snapshot() {
+		final long end = writeSeq;
+		return new Snapshot(firstSeq(end), end);
+	}
+
+	private long firstSeq(final long end) {
+		long first = Math.max(0, end - capacity);
+		if (spillStore != null && ! spillStore.isEmpty()) {
+			first = Math.min(first, spillStore.getFirstSeq());
+		}
+		return Math.max(clearSeq, first);
+	}
+
+	private int slot(final long seq) {
+		return (int) (seq % capacity);
+	}
+
+	private String intern(final String name) {
+		if (name == null) {
+			return null;
+		}
+		final String pooled = namePool.putIfAbsent(name, name);
+		return pooled != null ? pooled : name;
+	}
+
+	/**
+	 * Reads the entry with the given sequence number from memory or, if it was evicted already,
+	 * from the spill store.
+	 *
+	 * @param seq the sequence number
+	 * @param cursor the spill cursor of the reader, may be <code>null</code> for single reads
+	 * @return the message or <code>null</code> if the entry is no longer available
+	 */
+	LogMessage read(final long seq, final SpillStore.Cursor cursor) {
+		final LogMessage msg = readMemory(seq);
+		if (msg != null || spillStore == null) {
+			return msg;
+		}
+		return spillStore.read(seq, cursor != null ? cursor : new SpillStore.Cursor());
+	}
+
+	private LogMessage readMemory(final long seq) {
+		if (seq < validSeq) {
+			return null;
+		}
+		final int slot = slot(seq);
+		final byte level = levels[slot];
+		final long timestamp = timestamps[slot];
+		final int loggerId = loggerIds[slot];
+		final String server = servers[slot];
+		final String text = texts[slot];
+		VarHandle.loadLoadFence();
+		if (seq < validSeq) {
+			return null;
+		}
+		return new LogMessage(server, LEVELS[level], timestamp, loggerId, text);
+	}
+
+	/**
+	 * Receives the messages selected from a {@link Snapshot}.
+	 */
+	@FunctionalInterface
+	public interface Visitor {
+
+		/**
+		 * @param seq the sequence number of the message
+		 * @param msg the message
+		 * @return false to stop
+		 */
+		boolean visit(long seq, LogMessage msg);
+	}
+
+	/**
+	 * Consistent view on a range of sequence numbers. Entries that get overwritten while the
+	 * snapshot is in use are skipped.
+	 */
+	public class Snapshot implements Iterable<LogMessage> {
+
+		private final long from;
+		private final long to;
+
+		Snapshot(final long from, final long to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		public long getFromSeq() {
+			return from;
+		}
+
+		public long getToSeq() {
+			return to;
+		}
+
+		public int size() {
+			return (int) (to - from);
+		}
+
+		/**
+		 * @param rangeFrom the lowest sequence number
+		 * @param rangeTo the sequence number behind the highest one
+		 * @return a snapshot limited to the given range
+		 */
+		public Snapshot range(final long rangeFrom, final long rangeTo) {
+			final long clampedFrom = Math.min(Math.max(from, rangeFrom), to);
+			return new Snapshot(clampedFrom, Math.max(clampedFrom, Math.min(to, rangeTo)));
+		}
+
+		/**
+		 * @param seq the sequence number within [fromSeq, toSeq)
+		 * @return the message or <code>null</code> if it is no longer available
+		 */
+		public LogMessage get(final long seq) {
+			if (seq < from || seq >= to) {
+				return null;
+			}
+			return read(seq, null);
+		}
+
+		/**
+		 * Visits the messages matching the filter in ascending order. For the in-memory tier only
+		 * the candidates determined by the index are evaluated.
+		 *
+		 * @param filter the filter
+		 * @param visitor the visitor, returns false to stop
+		 */
+		public void select(final LogFilter filter, final Visitor visitor) {
+			final SpillStore.Cursor cursor = new SpillStore.Cursor();
+			final LogIndex.Candidates candidates = index.candidates(filter, Math.max(from, to - capacity), to);
+			/* spilled entries and those trimmed from the index since the snapshot was taken */
+			for (long seq = from; seq < candidates.from; seq++) {
+				if ( ! visit(seq, cursor, filter, visitor)) {
+					return;
+				}
+			}
+			if (candidates.seqs == null) {
+				for (long seq = candidates.from; seq < to; seq++) {
+					if ( ! visit(seq, cursor, filter, visitor)) {
+						return;
+					}
+				}
+			} else {
+				for (final long seq : candidates.seqs) {
+					if ( ! visit(seq, cursor, filter, visitor)) {
+						return;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Visits the messages matching the filter in descending order, starting with the newest.
+		 *
+		 * @param filter the filter
+		 * @param visitor the visitor, returns false to stop
+		 */
+		public void selectDescending(final LogFilter filter, final Visitor visitor) {
+			final SpillStore.Cursor cursor = new SpillStore.Cursor();
+			final LogIndex.Candidates candidates = index.candidates(filter, Math.max(from, to - capacity), to);
+			if (candidates.seqs == null) {
+				if ( ! visitDescending(candidates.from, to, cursor, filter, visitor)) {
+					return;
+				}
+			} else {
+				for (int i = candidates.seqs.length - 1; i >= 0; i--) {
+					if ( ! visit(candidates.seqs[i], cursor, filter, visitor)) {
+						return;
+					}
+				}
+			}
+			/* spilled entries and those trimmed from the index since the snapshot was taken */
+			visitDescending(from, candidates.from, cursor, filter, visitor);
+		}
+
+		/**
+		 * Reads chunks in ascending order, so spilled entries can be decoded sequentially, and
+		 * visits each chunk backwards.
+		 */
+		private boolean visitDescending(final long start, final long end, final SpillStore.Cursor cursor, final LogFilter filter, final Visitor visitor) {
+			final LogMessage[] chunk = new LogMessage[DESCENDING_CHUNK_SIZE];
+			for (long chunkEnd = end; chunkEnd > start; chunkEnd -= DESCENDING_CHUNK_SIZE) {
+				final long chunkStart = Math.max(start, chunkEnd - DESCENDING_CHUNK_SIZE);
+				for (long seq = chunkStart; seq < chunkEnd; seq++) {
+					chunk[(int) (seq - chunkStart)] = read(seq, cursor);
+				}
+				for (int i = (int) (chunkEnd - chunkStart) - 1; i >= 0; i--) {
+					final LogMessage msg = chunk[i];
+					if (msg != null && filter.test(msg) && ! visitor.visit(chunkStart + i, msg)) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+
+		private boolean visit(final long seq, final SpillStore.Cursor cursor, final LogFilter filter, final Visitor visitor) {
+			final LogMessage msg = read(seq, cursor);
+			return msg == null || ! filter.test(msg) || visitor.visit(seq, msg);
+		}
+
+		@Override
+		public Iterator<LogMessage> iterator() {
+			return new Iterator<>() {
+				private final SpillStore.Cursor cursor = new SpillStore.Cursor();
+				private long seq = from;
+				private LogMessage next = advance();
+
+				private LogMessage advance() {
+					while (seq < to) {
+						final LogMessage msg = read(seq++, cursor);
+						if (msg != null) {
+							return msg;
+						}
+					}
+					return null;
+				}
+
+				@Override
+				public boolean hasNext() {
+					return next != null;
+				}
+
+				@Override
+				public LogMessage next() {
+					if (next == null) {
+						throw new NoSuchElementException();
+					}
+					final LogMessage result = next;
+					next = advance();
+					return result;
+				}
+			};
+		}
+	}
+}
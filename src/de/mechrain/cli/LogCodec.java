@@ -0,0 +1,92 @@
+package de.mechrain.cli;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.logging.log4j.spi.StandardLevel;
+
+/**
+ * Compact binary encoding of a {@link LogMessage}:
+ *
+ * <pre>
+ * byte   level (StandardLevel ordinal)
+ * long   timestamp
+ * byte   server tag length, 0 without tag
+ * short  logger name length
+ * int    text length
+ * byte[] server tag (UTF-8)
+ * byte[] logger name (UTF-8)
+ * byte[] text (UTF-8)
+ * </pre>
+ *
+ * All methods use absolute positions so the same buffer can be shared between readers.
+ */
+final class LogCodec {
+
+	static final int HEADER_SIZE = 1 + 8 + 1 + 2 + 4;
+	static final int MAX_SERVER_LENGTH = 0xFF;
+
+	private static final StandardLevel[] LEVELS = StandardLevel.values();
+
+	private LogCodec() {
+	}
+
+	static byte[] encodeString(final String value) {
+		return value != null ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+	}
+
+	/**
+	 * Encodes the server tag, truncated to {@link #MAX_SERVER_LENGTH} bytes.
+	 */
+	static byte[] encodeServer(final String server) {
+		final byte[] bytes = encodeString(server);
+		return bytes.length > MAX_SERVER_LENGTH ? Arrays.copyOf(bytes, MAX_SERVER_LENGTH) : bytes;
+	}
+
+	static int encodedSize(final byte[] server, final byte[] loggerName, final byte[] text) {
+		return HEADER_SIZE + server.length + loggerName.length + text.length;
+	}
+
+	/**
+	 * Writes a record at the given position.
+	 *
+	 * @return the position after the record
+	 */
+	static int encode(final ByteBuffer buffer, final int pos, final StandardLevel level, final long timestamp, final byte[] server, final byte[] loggerName, final byte[] text) {
+		buffer.put(pos, (byte) level.ordinal());
+		buffer.putLong(pos + 1, timestamp);
+		buffer.put(pos + 9, (byte) server.length);
+		buffer.putShort(pos + 10, (short) loggerName.length);
+		buffer.putInt(pos + 12, text.length);
+		buffer.put(pos + HEADER_SIZE, server);
+		buffer.put(pos + HEADER_SIZE + server.length, loggerName);
+		buffer.put(pos + HEADER_SIZE + server.length + loggerName.length, text);
+		return pos + HEADER_SIZE + server.length + loggerName.length + text.length;
+	}
+
+	/**
+	 * @return the size of the record starting at the given position
+	 */
+	static int recordSize(final ByteBuffer buffer, final int pos) {
+		return HEADER_SIZE + Byte.toUnsignedInt(buffer.get(pos + 9)) + Short.toUnsignedInt(buffer.getShort(pos + 10)) + buffer.getInt(pos + 12);
+	}
+
+	static long timestamp(final ByteBuffer buffer, final int pos) {
+		return buffer.getLong(pos + 1);
+	}
+
+	static LogMessage decode(final ByteBuffer buffer, final int pos) {
+		final StandardLevel level = LEVELS[buffer.get(pos)];
+		final long timestamp = buffer.getLong(pos + 1);
+		final int serverLength = Byte.toUnsignedInt(buffer.get(pos + 9));
+		final int loggerNameLength = Short.toUnsignedInt(buffer.getShort(pos + 10));
+		final int textLength = buffer.getInt(pos + 12);
+		final byte[] bytes = new byte[serverLength + loggerNameLength + textLength];
+		buffer.get(pos + HEADER_SIZE, bytes);
+		final String server = serverLength > 0 ? new String(bytes, 0, serverLength, StandardCharsets.UTF_8) : null;
+		final String loggerName = new String(bytes, serverLength, loggerNameLength, StandardCharsets.UTF_8);
+		final String text = new String(bytes, serverLength + loggerNameLength, textLength, StandardCharsets.UTF_8);
+		return new LogMessage(server, level, timestamp, loggerName, text);
+	}
+}
@@ -2,55 +2,104 @@ package de.mechrain.cli;
 
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.spi.StandardLevel;
 
+/**
+ * The display and filter settings, persisted in {@link #PROPERTIES_FILE_NAME}.
+ * <p>
+ * Changes are written in the background, debounced by {@link #PERSIST_DELAY_MILLIS} so a
+ * command changing several settings and the defaults at startup cause a single write. The file
+ * is written to a temporary file first and moved over the old one, so a crash never leaves a
+ * truncated config behind. {@link #flush()} writes pending changes right away.
+ */
 public class LogConfig {
 	
 	public enum FilterBy {
 		LOG_NAME,
 		TEXT,
+		EXPRESSION,
 		DONT
 	}
 	
 	private static final String PROPERTIES_FILE_NAME = "logconf.properties";
+	private static final long PERSIST_DELAY_MILLIS = 500;
 	
 	private static final String SHOW_TIME = "showTime";
 	private static final String SHOW_LOGGER_NAME = "showLoggerName";
 	private static final String FILTER_LEVEL = "filterLevel";
 	private static final String FILTER_BY = "filterBy";
 	private static final String FILTER_STRING = "filterString";
+	private static final String BUFFER_CAPACITY = "bufferCapacity";
+	private static final String SPILL_BUDGET_MB = "spillBudgetMb";
+	private static final String REDRAW_SCROLLBACK = "redrawScrollback";
+	private static final String RAW_RETENTION_MINUTES = "rawRetentionMinutes";
+	private static final String RATE_LIMITS = "rateLimits";
 	
-	private boolean showTime = true;
-	private boolean showLoggerName = true;
-	private StandardLevel filterLevel = StandardLevel.TRACE;
-	private FilterBy filterBy = FilterBy.DONT;
-	private String filterString;
+	private static final int DEFAULT_SPILL_BUDGET_MB = 256;
+	static final int DEFAULT_REDRAW_SCROLLBACK = 200;
+	private static final int DEFAULT_RAW_RETENTION_MINUTES = 1440;
+	
+	/** Replaced on every change of the filter or display settings. */
+	private volatile FilterSnapshot snapshot = FilterSnapshot.DEFAULT;
+	/** Lines per second by logger name, replaced on every change. */
+	private volatile Map<String, Integer> rateLimits = Map.of();
+	private int bufferCapacity = LogBuffer.DEFAULT_CAPACITY;
+	private int spillBudgetMb = DEFAULT_SPILL_BUDGET_MB;
+	private int rawRetentionMinutes = DEFAULT_RAW_RETENTION_MINUTES;
 	
-	private final String timeColonPattern = "HH:mm:ss.SSS";
-	private final DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern(timeColonPattern);
 	private final ZoneId zoneId;
 	
 	final Properties properties;
+	/** The file the settings are persisted in, <code>null</code> if they are kept in memory only. */
+	private final Path path;
+	private final ScheduledExecutorService persister = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		final Thread thread = new Thread(runnable, "config-persister");
+		thread.setDaemon(true);
+		return thread;
+	});
+	/** Guarded by properties. */
+	private boolean persistScheduled;
 	
 	public LogConfig() {
+		this(Paths.get(PROPERTIES_FILE_NAME), new Properties());
+	}
+	
+	/**
+	 * Creates a config from the given settings which is never persisted, used by the benchmarks.
+	 * 
+	 * @param properties the settings as they would be read from the file
+	 */
+	LogConfig(final Properties properties) {
+		this(null, properties);
+	}
+	
+	private LogConfig(final Path path, final Properties properties) {
       	this.zoneId = ZonedDateTime.now().getZone();
-      	this.properties = new Properties();
+      	this.path = path;
+      	this.properties = properties;
       	loadPropertiesOrDefault(properties);
 	}
 	
 	private void loadPropertiesOrDefault(final Properties properties) {
-      	final Path path = Paths.get(PROPERTIES_FILE_NAME);
-      	boolean didLoad = false;
-      	if (path.toFile().exists()) {
+      	boolean didLoad = path == null;
+      	if (path != null && path.toFile().exists()) {
       		try (final FileInputStream fis = new FileInputStream(path.toFile())) {
       			properties.load(fis);
       			didLoad = true;
@@ -65,87 +114,252 @@ public class LogConfig {
       		setFilterLevel(StandardLevel.valueOf(properties.getProperty(FILTER_LEVEL, StandardLevel.TRACE.name())));
       		setShowLoggerName(Boolean.valueOf(properties.getProperty(SHOW_LOGGER_NAME, Boolean.TRUE.toString())));
       		setShowTime(Boolean.valueOf(properties.getProperty(SHOW_TIME, Boolean.TRUE.toString())));
-      		setFilterBy(FilterBy.valueOf(properties.getProperty(FILTER_BY, FilterBy.DONT.name())));
-      		setFilterString(properties.getProperty(FILTER_STRING, ""));
+      		setFilter(FilterBy.valueOf(properties.getProperty(FILTER_BY, FilterBy.DONT.name())), properties.getProperty(FILTER_STRING, ""));
+      		bufferCapacity = parseInt(properties.getProperty(BUFFER_CAPACITY), LogBuffer.DEFAULT_CAPACITY, 1);
+      		spillBudgetMb = parseInt(properties.getProperty(SPILL_BUDGET_MB), DEFAULT_SPILL_BUDGET_MB, 0);
+      		rawRetentionMinutes = parseInt(properties.getProperty(RAW_RETENTION_MINUTES), DEFAULT_RAW_RETENTION_MINUTES, 1);
+      		setRedrawScrollback(parseInt(properties.getProperty(REDRAW_SCROLLBACK), DEFAULT_REDRAW_SCROLLBACK, 0));
+      		rateLimits = parseRateLimits(properties.getProperty(RATE_LIMITS, ""));
+      		synchronized (properties) {
+      			/* nothing changed by loading */
+      			persistScheduled = false;
+      		}
       	} else {
       		setFilterLevel(StandardLevel.TRACE);
       		setShowLoggerName(true);
       		setShowTime(true);
-      		setFilterBy(FilterBy.DONT);
-      		setFilterString("");
+      		setFilter(FilterBy.DONT, "");
+      		setRedrawScrollback(DEFAULT_REDRAW_SCROLLBACK);
+      		properties.put(BUFFER_CAPACITY, String.valueOf(bufferCapacity));
+      		properties.put(SPILL_BUDGET_MB, String.valueOf(spillBudgetMb));
+      		properties.put(RAW_RETENTION_MINUTES, String.valueOf(rawRetentionMinutes));
       		persist();
       	}
 	}
 	
+	private static int parseInt(final String value, final int defaultValue, final int min) {
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			final int result = Integer.parseInt(value.trim());
+			return result >= min ? result : defaultValue;
+		} catch (final NumberFormatException e) {
+			e.printStackTrace();
+			return defaultValue;
+		}
+	}
+	
+	private static Map<String, Integer> parseRateLimits(final String value) {
+		final Map<String, Integer> limits = new HashMap<>();
+		for (final String limit : value.split(",")) {
+			final int eq = limit.lastIndexOf('=');
+			if (eq > 0) {
+				final int perSecond = parseInt(limit.substring(eq + 1), 0, 0);
+				if (perSecond > 0) {
+					limits.put(limit.substring(0, eq).trim(), perSecond);
+				}
+			}
+		}
+		return Map.copyOf(limits);
+	}
+	
+	/**
+	 * Schedules writing the settings, changes until then are written along.
+	 */
 	public void persist() {
-		persist(properties);
+		if (path == null) {
+			return;
+		}
+		synchronized (properties) {
+			if (persistScheduled) {
+				return;
+			}
+			persistScheduled = true;
+		}
+		persister.schedule(this::flush, PERSIST_DELAY_MILLIS, TimeUnit.MILLISECONDS);
 	}
 	
-	private void persist(final Properties properties) {
-		try (final FileOutputStream fos = new FileOutputStream(Paths.get(PROPERTIES_FILE_NAME).toFile())) {
-			properties.store(fos, null);
-		} catch (final FileNotFoundException e) {
-			e.printStackTrace();
+	/**
+	 * Writes pending changes now.
+	 */
+	public void flush() {
+		final Properties snapshot;
+		synchronized (properties) {
+			if ( ! persistScheduled) {
+				return;
+			}
+			persistScheduled = false;
+			snapshot = (Properties) properties.clone();
+		}
+		persist(snapshot);
+	}
+	
+	private synchronized void persist(final Properties snapshot) {
+		final Path file = path.toAbsolutePath();
+		final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try {
+			try (final OutputStream os = Files.newOutputStream(temp)) {
+				snapshot.store(os, null);
+			}
+			try {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (final AtomicMoveNotSupportedException e) {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
 		} catch (final IOException e) {
 			e.printStackTrace();
 		}
 	}
 
-	public void setFilterLevel(final StandardLevel filterLevel) {
+	/**
+	 * @return the current filter and display settings, consistent with each other
+	 */
+	public FilterSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	public synchronized void setFilterLevel(final StandardLevel filterLevel) {
 		properties.put(FILTER_LEVEL, filterLevel.name());
-  		persist();
-		this.filterLevel = filterLevel;
+		persist();
+		snapshot = snapshot.withFilterLevel(filterLevel);
 	}
 
 	public StandardLevel getFilterLevel() {
-		return filterLevel;
+		return snapshot.getFilterLevel();
 	}
 
-	public void setShowLoggerName(final boolean showLoggerName) {
+	public synchronized void setShowLoggerName(final boolean showLoggerName) {
 		properties.put(SHOW_LOGGER_NAME, String.valueOf(showLoggerName));
-  		persist();
-		this.showLoggerName = showLoggerName;
+		persist();
+		snapshot = snapshot.withShowLoggerName(showLoggerName);
 	}
 
 	public boolean isShowLoggerName() {
-		return showLoggerName;
+		return snapshot.isShowLoggerName();
 	}
 
-	public void setShowTime(final boolean showTime) {
+	public synchronized void setShowTime(final boolean showTime) {
 		properties.put(SHOW_TIME, String.valueOf(showTime));
-  		persist();
-		this.showTime = showTime;
+		persist();
+		snapshot = snapshot.withShowTime(showTime);
 	}
 
 	public boolean isShowTime() {
-		return showTime;
+		return snapshot.isShowTime();
 	}
 
-	public void setFilterBy(final FilterBy filterBy) {
+	/**
+	 * Sets the filter mode and the filter string at once, the filter is compiled once and takes
+	 * effect for the next message evaluated.
+	 * 
+	 * @param filterBy the filter mode
+	 * @param filterString the filter string
+	 */
+	public synchronized void setFilter(final FilterBy filterBy, final String filterString) {
 		properties.put(FILTER_BY, filterBy.name());
-  		persist();
-		this.filterBy = filterBy;
+		properties.put(FILTER_STRING, filterString);
+		persist();
+		snapshot = snapshot.withFilter(filterBy, filterString);
+	}
+
+	public synchronized void setFilterBy(final FilterBy filterBy) {
+		setFilter(filterBy, snapshot.getFilterString());
 	}
 	
 	public FilterBy getFilterBy() {
-		return filterBy;
+		return snapshot.getFilterBy();
 	}
 
-	public void setFilterString(final String filterString) {
-		properties.put(FILTER_STRING, filterString);
-  		persist();
-		this.filterString = filterString;
+	public synchronized void setFilterString(final String filterString) {
+		setFilter(snapshot.getFilterBy(), filterString);
 	}
 
 	public String getFilterString() {
-		return filterString;
+		return snapshot.getFilterString();
+	}
+	
+	/**
+	 * @return the filter compiled from the current filter level, filter mode and filter string
+	 */
+	public LogFilter getFilter() {
+		return snapshot.getFilter();
 	}
 
-	public ZoneId getZoneId() {
-		return zoneId;
+	/**
+	 * Limits the lines of a logger to the given rate, the lines exceeding it are counted but
+	 * neither buffered nor printed.
+	 * 
+	 * @param loggerName the logger name
+	 * @param perSecond the lines per second, also the burst size, 0 removes the limit
+	 */
+	public synchronized void setRateLimit(final String loggerName, final int perSecond) {
+		final Map<String, Integer> limits = new TreeMap<>(rateLimits);
+		if (perSecond > 0) {
+			limits.put(loggerName, perSecond);
+		} else {
+			limits.remove(loggerName);
+		}
+		final StringBuilder sb = new StringBuilder();
+		for (final Map.Entry<String, Integer> limit : limits.entrySet()) {
+			if (sb.length() > 0) {
+				sb.append(',');
+			}
+			sb.append(limit.getKey()).append('=').append(limit.getValue());
+		}
+		properties.put(RATE_LIMITS, sb.toString());
+		persist();
+		rateLimits = Map.copyOf(limits);
+	}
+
+	/**
+	 * @return the lines per second by logger name
+	 */
+	public Map<String, Integer> getRateLimits() {
+		return rateLimits;
+	}
+
+	/**
+	 * @param redrawScrollback the number of lines printed on a redraw in addition to the visible
+	 *        terminal rows, limited to the buffer capacity
+	 */
+	public synchronized void setRedrawScrollback(final int redrawScrollback) {
+		final int lines = Math.min(redrawScrollback, bufferCapacity);
+		properties.put(REDRAW_SCROLLBACK, String.valueOf(lines));
+  		persist();
+		snapshot = snapshot.withRedrawScrollback(lines);
+	}
+
+	/**
+	 * @return the number of lines printed on a redraw in addition to the visible terminal rows
+	 */
+	public int getRedrawScrollback() {
+		return snapshot.getRedrawScrollback();
+	}
+
+	/**
+	 * @return the number of log messages kept in memory, read once at startup
+	 */
+	public int getBufferCapacity() {
+		return bufferCapacity;
+	}
+
+	/**
+	 * @return the disk budget in MB for messages evicted from memory, 0 if they are dropped
+	 */
+	public int getSpillBudgetMb() {
+		return spillBudgetMb;
 	}
 
-	public DateTimeFormatter getTimeFormatter() {
-		return timeFormatter;
+	/**
+	 * @return the minutes raw sensor readings are kept before only their rollups remain, read once
+	 *         at startup
+	 */
+	public int getRawRetentionMinutes() {
+		return rawRetentionMinutes;
+	}
+
+	public ZoneId getZoneId() {
+		return zoneId;
 	}
 }
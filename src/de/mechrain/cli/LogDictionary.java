@@ -0,0 +1,67 @@
+package de.mechrain.cli;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns dense int ids to recurring strings, used for the logger names of the messages.
+ * <p>
+ * The servers only use a handful of loggers, so every {@link LogMessage} references the single
+ * canonical instance of its logger name and carries its id. The {@link LogBuffer} stores the ids
+ * instead of the names and filters on the logger cache their result per id, so evaluating them
+ * becomes an array lookup.
+ * <p>
+ * Ids are never released. Lookups are lock free, only adding a new string synchronizes.
+ */
+final class LogDictionary {
+
+	static final LogDictionary LOGGERS = new LogDictionary();
+
+	private static final int INITIAL_SIZE = 16;
+
+	private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+	/** Written before the id is published in {@link #ids}, so readers of an id see the value. */
+	private volatile String[] values = new String[INITIAL_SIZE];
+	private int size;
+
+	/**
+	 * @param value the string
+	 * @return the id of the string or -1 for <code>null</code>
+	 */
+	int idOf(final String value) {
+		if (value == null) {
+			return -1;
+		}
+		final Integer id = ids.get(value);
+		return id != null ? id : add(value);
+	}
+
+	private synchronized int add(final String value) {
+		final Integer existing = ids.get(value);
+		if (existing != null) {
+			return existing;
+		}
+		if (size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+		}
+		values[size] = value;
+		ids.put(value, size);
+		return size++;
+	}
+
+	/**
+	 * @param id an id returned by {@link #idOf(String)}
+	 * @return the canonical instance of the string or <code>null</code> for -1
+	 */
+	String get(final int id) {
+		return id < 0 ? null : values[id];
+	}
+
+	/**
+	 * @return the number of strings in the dictionary
+	 */
+	synchronized int size() {
+		return size;
+	}
+}
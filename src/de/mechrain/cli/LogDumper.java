@@ -0,0 +1,108 @@
+package de.mechrain.cli;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a snapshot of the log buffer to a file on a background thread.
+ * <p>
+ * The output is staged in a large buffer in front of a {@link FileChannel}, so the file is written
+ * sequentially in big chunks. Files ending with <code>.gz</code> are gzip compressed. While running
+ * the progress is reported every few seconds.
+ */
+public class LogDumper implements Runnable {
+
+	public enum Format {
+		TEXT, JSONL
+	}
+
+	private static final int STAGING_BUFFER_SIZE = 1024 * 1024;
+	private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+	private static final long PROGRESS_INTERVAL_MILLIS = 2_000;
+	/** Entries written between two checks whether progress has to be reported. */
+	private static final int PROGRESS_CHECK_INTERVAL = 4096;
+
+	private final MechRainTerminal terminal;
+	private final LogConfig logConfig;
+	private final LogBuffer.Snapshot snapshot;
+	private final LogFilter filter;
+	private final Path path;
+	private final Format format;
+
+	public LogDumper(final MechRainTerminal terminal, final LogConfig logConfig, final LogBuffer.Snapshot snapshot, final Path path, final Format format) {
+		this.terminal = terminal;
+		this.logConfig = logConfig;
+		this.snapshot = snapshot;
+		this.filter = logConfig.getFilter();
+		this.path = path;
+		this.format = format;
+	}
+
+	private boolean isCompressed() {
+		return path.getFileName().toString().toLowerCase().endsWith(".gz");
+	}
+
+	@Override
+	public void run() {
+		final long start = System.currentTimeMillis();
+		final long from = snapshot.getFromSeq();
+		final long total = Math.max(1, snapshot.getToSeq() - from);
+		final long[] count = new long[1];
+		final long[] nextProgress = { start + PROGRESS_INTERVAL_MILLIS };
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+				final OutputStream os = open(channel)) {
+			snapshot.select(filter, (seq, msg) -> {
+				try {
+					if (format == Format.JSONL) {
+						LogFormatter.writeJsonLine(os, msg);
+					} else {
+						msg.toLogOutput(os, logConfig);
+					}
+				} catch (final IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				if (++count[0] % PROGRESS_CHECK_INTERVAL == 0) {
+					final long now = System.currentTimeMillis();
+					if (now >= nextProgress[0]) {
+						nextProgress[0] = now + PROGRESS_INTERVAL_MILLIS;
+						terminal.printInfo("dump " + path.getFileName() + ": " + (seq - from) * 100 / total + "%, " + count[0] + " log entries");
+					}
+				}
+				return true;
+			});
+		} catch (final IOException e) {
+			fail(e);
+			return;
+		} catch (final UncheckedIOException e) {
+			fail(e.getCause());
+			return;
+		}
+		terminal.printInfo("wrote " + count[0] + " log entries (" + (path.toFile().length() >> 10) + "KB) to " + path + " in "
+				+ (System.currentTimeMillis() - start) + "ms");
+	}
+
+	private OutputStream open(final FileChannel channel) throws IOException {
+		final OutputStream channelStream = Channels.newOutputStream(channel);
+		if (isCompressed()) {
+			return new BufferedOutputStream(new GZIPOutputStream(channelStream, GZIP_BUFFER_SIZE), STAGING_BUFFER_SIZE);
+		}
+		return new BufferedOutputStream(channelStream, STAGING_BUFFER_SIZE);
+	}
+
+	private void fail(final IOException e) {
+		terminal.printError("Could not dump log " + e.getMessage());
+		try {
+			Files.deleteIfExists(path);
+		} catch (final IOException e1) {
+			// keep the partial file
+		}
+	}
+}
@@ -0,0 +1,17 @@
+package de.mechrain.cli;
+
+/**
+ * Compiled predicate deciding whether a log message is shown. Filters are immutable and may be
+ * evaluated concurrently by the ingest thread and the prompt thread.
+ */
+@FunctionalInterface
+public interface LogFilter {
+
+	LogFilter ACCEPT_ALL = msg -> true;
+
+	/**
+	 * @param msg the message to evaluate
+	 * @return true if the message passes the filter
+	 */
+	boolean test(LogMessage msg);
+}
@@ -0,0 +1,271 @@
+package de.mechrain.cli;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.spi.StandardLevel;
+
+/**
+ * The node types of a compiled {@link LogFilter} tree.
+ */
+public final class LogFilters {
+
+	/**
+	 * The part of a message a term is matched against.
+	 */
+	public enum Field {
+		LOGGER,
+		TEXT,
+		SERVER;
+
+		String select(final LogMessage msg) {
+			switch (this) {
+			case LOGGER:
+				return msg.getLoggerName();
+			case SERVER:
+				return msg.getServer() != null ? msg.getServer() : "";
+			default:
+				return msg.getText();
+			}
+		}
+	}
+
+	private LogFilters() {
+	}
+
+	/**
+	 * @param field the field to match
+	 * @param terms the literal terms, the filter matches if any of them is contained
+	 * @param ignoreCase whether to ignore the case
+	 * @return the filter
+	 */
+	public static LogFilter contains(final Field field, final List<String> terms, final boolean ignoreCase) {
+		if (terms.size() == 1 && ! ignoreCase) {
+			return new Contains(field, terms.get(0));
+		}
+		return new ContainsAny(field, List.copyOf(terms), new AhoCorasick(terms, ignoreCase));
+	}
+
+	public static LogFilter regex(final Field field, final String regex, final boolean ignoreCase) {
+		return new Regex(field, Pattern.compile(regex, ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0));
+	}
+
+	/**
+	 * @param query the search query
+	 * @return a filter accepting messages containing all tokens of the query as whole tokens
+	 * @throws IllegalArgumentException if the query contains no token
+	 * @see LogIndex#tokenize(String, int, java.util.function.Consumer)
+	 */
+	public static LogFilter tokens(final String query) {
+		final Set<String> tokens = new LinkedHashSet<>();
+		LogIndex.tokenize(query, Integer.MAX_VALUE, tokens::add);
+		if (tokens.isEmpty()) {
+			throw new IllegalArgumentException("No searchable term in '" + query + "'");
+		}
+		return new Tokens(List.copyOf(tokens));
+	}
+
+	/**
+	 * @param accepted the accepted levels
+	 * @return a filter accepting messages with one of the given levels
+	 */
+	public static LogFilter levels(final boolean[] accepted) {
+		return new Levels(accepted);
+	}
+
+	/**
+	 * @param maxLevel the least severe level to accept
+	 * @return a filter accepting messages at least as severe as the given level
+	 */
+	public static LogFilter maxLevel(final StandardLevel maxLevel) {
+		final StandardLevel[] levels = StandardLevel.values();
+		final boolean[] accepted = new boolean[levels.length];
+		for (final StandardLevel level : levels) {
+			accepted[level.ordinal()] = level.intLevel() <= maxLevel.intLevel();
+		}
+		return new Levels(accepted);
+	}
+
+	public static LogFilter and(final List<LogFilter> filters) {
+		return filters.size() == 1 ? filters.get(0) : new And(filters.toArray(new LogFilter[0]));
+	}
+
+	public static LogFilter or(final List<LogFilter> filters) {
+		return filters.size() == 1 ? filters.get(0) : new Or(filters.toArray(new LogFilter[0]));
+	}
+
+	public static LogFilter not(final LogFilter filter) {
+		return new Not(filter);
+	}
+
+	/**
+	 * Base of the filters matching a field of the message. The result for the logger field only
+	 * depends on the logger name, so it is cached by the id of the name in the
+	 * {@link LogDictionary}.
+	 */
+	abstract static class FieldFilter implements LogFilter {
+
+		private static final byte UNKNOWN = 0;
+		private static final byte MATCH = 1;
+		private static final byte NO_MATCH = 2;
+
+		final Field field;
+		/**
+		 * Results by logger id. Updated without locking, concurrent evaluations at worst match a
+		 * logger name more than once.
+		 */
+		private volatile byte[] loggerResults = new byte[0];
+
+		FieldFilter(final Field field) {
+			this.field = field;
+		}
+
+		@Override
+		public final boolean test(final LogMessage msg) {
+			final int loggerId = msg.getLoggerId();
+			if (field != Field.LOGGER || loggerId < 0) {
+				return matches(field.select(msg));
+			}
+			byte[] results = loggerResults;
+			if (loggerId < results.length && results[loggerId] != UNKNOWN) {
+				return results[loggerId] == MATCH;
+			}
+			final boolean match = matches(msg.getLoggerName());
+			if (loggerId >= results.length) {
+				results = Arrays.copyOf(results, Math.max(loggerId + 1, results.length * 2));
+				loggerResults = results;
+			}
+			results[loggerId] = match ? MATCH : NO_MATCH;
+			return match;
+		}
+
+		abstract boolean matches(String value);
+	}
+
+	static final class Contains extends FieldFilter {
+		final String term;
+
+		Contains(final Field field, final String term) {
+			super(field);
+			this.term = term;
+		}
+
+		@Override
+		boolean matches(final String value) {
+			return value.contains(term);
+		}
+	}
+
+	static final class ContainsAny extends FieldFilter {
+		final List<String> terms;
+		final AhoCorasick automaton;
+
+		ContainsAny(final Field field, final List<String> terms, final AhoCorasick automaton) {
+			super(field);
+			this.terms = terms;
+			this.automaton = automaton;
+		}
+
+		@Override
+		boolean matches(final String value) {
+			return automaton.matches(value);
+		}
+	}
+
+	static final class Regex extends FieldFilter {
+		/** Matchers are reused per thread, the pattern itself is compiled only once. */
+		private final ThreadLocal<Matcher> matcher;
+
+		Regex(final Field field, final Pattern pattern) {
+			super(field);
+			this.matcher = ThreadLocal.withInitial(() -> pattern.matcher(""));
+		}
+
+		@Override
+		boolean matches(final String value) {
+			return matcher.get().reset(value).find();
+		}
+	}
+
+	static final class Tokens implements LogFilter {
+		final List<String> tokens;
+
+		Tokens(final List<String> tokens) {
+			this.tokens = tokens;
+		}
+
+		@Override
+		public boolean test(final LogMessage msg) {
+			final Set<String> textTokens = new HashSet<>();
+			LogIndex.tokenize(msg.getText(), Integer.MAX_VALUE, textTokens::add);
+			return textTokens.containsAll(tokens);
+		}
+	}
+
+	static final class Levels implements LogFilter {
+		final boolean[] accepted;
+
+		Levels(final boolean[] accepted) {
+			this.accepted = accepted.clone();
+		}
+
+		@Override
+		public boolean test(final LogMessage msg) {
+			return accepted[msg.getLevel().ordinal()];
+		}
+	}
+
+	static final class And implements LogFilter {
+		final LogFilter[] filters;
+
+		And(final LogFilter[] filters) {
+			this.filters = filters;
+		}
+
+		@Override
+		public boolean test(final LogMessage msg) {
+			for (final LogFilter filter : filters) {
+				if ( ! filter.test(msg)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	static final class Or implements LogFilter {
+		final LogFilter[] filters;
+
+		Or(final LogFilter[] filters) {
+			this.filters = filters;
+		}
+
+		@Override
+		public boolean test(final LogMessage msg) {
+			for (final LogFilter filter : filters) {
+				if (filter.test(msg)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	static final class Not implements LogFilter {
+		final LogFilter filter;
+
+		Not(final LogFilter filter) {
+			this.filter = filter;
+		}
+
+		@Override
+		public boolean test(final LogMessage msg) {
+			return ! filter.test(msg);
+		}
+	}
+}
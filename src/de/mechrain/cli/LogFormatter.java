@@ -0,0 +1,254 @@
+package de.mechrain.cli;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+
+import org.apache.logging.log4j.spi.StandardLevel;
+
+/**
+ * Formats log messages for the console and for log files without intermediate objects.
+ * <p>
+ * Messages received from one of several servers are prefixed with <code>@</code> and the server
+ * tag after the time.
+ * <p>
+ * Each thread reuses its own {@link StringBuilder} and byte array. Timestamps are rendered as
+ * <code>HH:mm:ss.SSS</code>, the <code>HH:mm:ss.</code> part is formatted once per second and
+ * cached, the milliseconds are appended arithmetically.
+ */
+public final class LogFormatter {
+
+	private static final StandardLevel[] LEVELS = StandardLevel.values();
+	private static final byte[][] LEVEL_PREFIXES = new byte[LEVELS.length][];
+	private static final byte[] NEWLINE = { '\n' };
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	private static final int INITIAL_CAPACITY = 256;
+	/** Buffers grown beyond this size for a huge message are not kept. */
+	private static final int RETAINED_CAPACITY = 64 * 1024;
+
+	static {
+		for (final StandardLevel level : LEVELS) {
+			LEVEL_PREFIXES[level.ordinal()] = prefixOf(level).getBytes(StandardCharsets.ISO_8859_1);
+		}
+	}
+
+	private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+	private LogFormatter() {
+	}
+
+	private static String prefixOf(final StandardLevel level) {
+		switch (level) {
+		case ERROR:
+		case FATAL:
+			return "[ERR] ";
+		case WARN:
+			return "[WRN] ";
+		case INFO:
+			return "[INF] ";
+		case DEBUG:
+			return "[DBG] ";
+		case TRACE:
+			return "[TRC] ";
+		default:
+			return "[???] ";
+		}
+	}
+
+	/**
+	 * Formats the console line of a message (time, logger name and text as configured).
+	 * <p>
+	 * The result is backed by a thread local builder and only valid until the next call on the
+	 * same thread.
+	 *
+	 * @param msg the message
+	 * @param config the log config
+	 * @return the formatted line
+	 */
+	public static CharSequence formatConsole(final LogMessage msg, final LogConfig config) {
+		final State state = STATE.get();
+		final StringBuilder sb = state.builder();
+		appendLine(state, sb, msg, config);
+		return sb;
+	}
+
+	/**
+	 * Writes the log file line of a message including level prefix and line break with a single
+	 * write call. Characters outside ISO-8859-1 are replaced by '?'.
+	 *
+	 * @param os the stream to write to
+	 * @param msg the message
+	 * @param config the log config
+	 * @throws IOException if writing fails
+	 */
+	public static void writeLogLine(final OutputStream os, final LogMessage msg, final LogConfig config) throws IOException {
+		final State state = STATE.get();
+		final StringBuilder sb = state.builder();
+		appendLine(state, sb, msg, config);
+
+		final byte[] prefix = LEVEL_PREFIXES[msg.getLevel().ordinal()];
+		final int length = prefix.length + sb.length() + NEWLINE.length;
+		final byte[] bytes = state.bytes(length);
+		System.arraycopy(prefix, 0, bytes, 0, prefix.length);
+		int pos = prefix.length;
+		for (int i = 0, len = sb.length(); i < len; i++) {
+			final char c = sb.charAt(i);
+			bytes[pos++] = c <= 0xFF ? (byte) c : (byte) '?';
+		}
+		bytes[pos++] = '\n';
+		os.write(bytes, 0, pos);
+	}
+
+	/**
+	 * Writes a message as one UTF-8 encoded JSON object per line with a single write call.
+	 *
+	 * @param os the stream to write to
+	 * @param msg the message
+	 * @throws IOException if writing fails
+	 */
+	public static void writeJsonLine(final OutputStream os, final LogMessage msg) throws IOException {
+		final State state = STATE.get();
+		final StringBuilder sb = state.builder();
+		sb.append("{\"timestamp\":").append(msg.getTimestamp())
+			.append(",\"level\":\"").append(msg.getLevel().name())
+			.append("\",\"logger\":");
+		appendJsonString(sb, msg.getLoggerName());
+		if (msg.getServer() != null) {
+			sb.append(",\"server\":");
+			appendJsonString(sb, msg.getServer());
+		}
+		sb.append(",\"text\":");
+		appendJsonString(sb, msg.getText());
+		sb.append("}\n");
+
+		final byte[] bytes = state.bytes(sb.length() * 3);
+		int pos = 0;
+		for (int i = 0, len = sb.length(); i < len; i++) {
+			final char c = sb.charAt(i);
+			if (c < 0x80) {
+				bytes[pos++] = (byte) c;
+			} else if (c < 0x800) {
+				bytes[pos++] = (byte) (0xC0 | c >> 6);
+				bytes[pos++] = (byte) (0x80 | c & 0x3F);
+			} else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(sb.charAt(i + 1))) {
+				final int cp = Character.toCodePoint(c, sb.charAt(++i));
+				bytes[pos++] = (byte) (0xF0 | cp >> 18);
+				bytes[pos++] = (byte) (0x80 | cp >> 12 & 0x3F);
+				bytes[pos++] = (byte) (0x80 | cp >> 6 & 0x3F);
+				bytes[pos++] = (byte) (0x80 | cp & 0x3F);
+			} else if (Character.isSurrogate(c)) {
+				bytes[pos++] = '?';
+			} else {
+				bytes[pos++] = (byte) (0xE0 | c >> 12);
+				bytes[pos++] = (byte) (0x80 | c >> 6 & 0x3F);
+				bytes[pos++] = (byte) (0x80 | c & 0x3F);
+			}
+		}
+		os.write(bytes, 0, pos);
+	}
+
+	private static void appendJsonString(final StringBuilder sb, final String value) {
+		if (value == null) {
+			sb.append("null");
+			return;
+		}
+		sb.append('"');
+		for (int i = 0, len = value.length(); i < len; i++) {
+			final char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					sb.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+				} else {
+					sb.append(c);
+				}
+				break;
+			}
+		}
+		sb.append('"');
+	}
+
+	private static void appendLine(final State state, final StringBuilder sb, final LogMessage msg, final LogConfig config) {
+		final FilterSnapshot settings = config.getSnapshot();
+		if (settings.isShowTime()) {
+			state.appendTime(sb, msg.getTimestamp(), config.getZoneId());
+			sb.append(' ');
+		}
+		if (msg.getServer() != null) {
+			sb.append('@').append(msg.getServer()).append(' ');
+		}
+		if (settings.isShowLoggerName()) {
+			sb.append(msg.getLoggerName()).append(' ');
+		}
+		sb.append(msg.getText());
+	}
+
+	private static final class State {
+		private StringBuilder builder = new StringBuilder(INITIAL_CAPACITY);
+		private byte[] bytes = new byte[INITIAL_CAPACITY];
+
+		private final char[] secondPrefix = new char[9];
+		private long cachedSecond = Long.MIN_VALUE;
+		private ZoneId cachedZone;
+
+		StringBuilder builder() {
+			if (builder.capacity() > RETAINED_CAPACITY) {
+				builder = new StringBuilder(INITIAL_CAPACITY);
+			}
+			builder.setLength(0);
+			return builder;
+		}
+
+		byte[] bytes(final int length) {
+			if (bytes.length < length) {
+				bytes = new byte[Math.max(length, bytes.length * 2)];
+			} else if (bytes.length > RETAINED_CAPACITY && length <= INITIAL_CAPACITY) {
+				bytes = new byte[INITIAL_CAPACITY];
+			}
+			return bytes;
+		}
+
+		void appendTime(final StringBuilder sb, final long timestamp, final ZoneId zone) {
+			final long second = Math.floorDiv(timestamp, 1000);
+			if (second != cachedSecond || zone != cachedZone) {
+				final LocalTime time = Instant.ofEpochSecond(second).atZone(zone).toLocalTime();
+				twoDigits(secondPrefix, 0, time.getHour());
+				secondPrefix[2] = ':';
+				twoDigits(secondPrefix, 3, time.getMinute());
+				secondPrefix[5] = ':';
+				twoDigits(secondPrefix, 6, time.getSecond());
+				secondPrefix[8] = '.';
+				cachedSecond = second;
+				cachedZone = zone;
+			}
+			final int millis = Math.floorMod(timestamp, 1000);
+			sb.append(secondPrefix)
+				.append((char) ('0' + millis / 100))
+				.append((char) ('0' + millis / 10 % 10))
+				.append((char) ('0' + millis % 10));
+		}
+
+		private static void twoDigits(final char[] dst, final int pos, final int value) {
+			dst[pos] = (char) ('0' + value / 10);
+			dst[pos + 1] = (char) ('0' + value % 10);
+		}
+	}
+}
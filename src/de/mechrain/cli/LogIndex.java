@@ -0,0 +1,305 @@
+package de.mechrain.cli;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import org.apache.logging.log4j.spi.StandardLevel;
+
+import de.mechrain.cli.LogFilters.Field;
+
+/**
+ * Inverted index over the in-memory tier of the {@link LogBuffer}. Posting lists of sequence
+ * numbers are kept per level, per logger name and per text token (lower case alphanumeric runs).
+ * <p>
+ * The index is updated by the buffer writer on every append. Evicted sequence numbers are trimmed
+ * lazily: queries ignore them and a full compaction runs once per buffer capacity appends.
+ * <p>
+ * Candidates computed from the index are a superset of the matching entries, callers still have
+ * to evaluate the filter on each candidate. Only the first tokens of very long texts are indexed,
+ * such entries are always part of the text candidates.
+ * <p>
+ * A compaction may trim entries a caller's snapshot still covers, the candidates therefore report
+ * the lowest sequence number they account for.
+ */
+public class LogIndex {
+
+	private static final StandardLevel[] LEVELS = StandardLevel.values();
+	private static final int MIN_TOKEN_LENGTH = 2;
+	private static final int MAX_TOKENS_PER_MESSAGE = 64;
+
+	private final PostingList[] levelPostings = new PostingList[LEVELS.length];
+	private final Map<String, PostingList> loggerPostings = new HashMap<>();
+	private final Map<String, PostingList> tokenPostings = new HashMap<>();
+	/** Entries with more tokens than indexed. */
+	private final PostingList overflowPostings = new PostingList();
+	private final int compactInterval;
+
+	private int appendsSinceCompaction;
+	/** Sequence numbers below were trimmed. */
+	private long indexedFrom;
+
+	public LogIndex(final int compactInterval) {
+		this.compactInterval = compactInterval;
+		for (int i = 0; i < LEVELS.length; i++) {
+			levelPostings[i] = new PostingList();
+		}
+	}
+
+	/**
+	 * Adds an entry to the index.
+	 *
+	 * @param seq the sequence number of the entry
+	 * @param minSeq the lowest sequence number still held in memory
+	 */
+	synchronized void add(final long seq, final long minSeq, final StandardLevel level, final String loggerName, final String text) {
+		levelPostings[level.ordinal()].add(seq);
+		loggerPostings.computeIfAbsent(loggerName, k -> new PostingList()).add(seq);
+		if ( ! tokenize(text, MAX_TOKENS_PER_MESSAGE, token -> tokenPostings.computeIfAbsent(token, k -> new PostingList()).add(seq))) {
+			overflowPostings.add(seq);
+		}
+		if (++appendsSinceCompaction >= compactInterval) {
+			compact(minSeq);
+		}
+	}
+
+	/**
+	 * Removes all sequence numbers below the given one and drops empty posting lists.
+	 */
+	synchronized void compact(final long minSeq) {
+		appendsSinceCompaction = 0;
+		indexedFrom = Math.max(indexedFrom, minSeq);
+		for (final PostingList postings : levelPostings) {
+			postings.trim(minSeq);
+		}
+		overflowPostings.trim(minSeq);
+		compact(loggerPostings, minSeq);
+		compact(tokenPostings, minSeq);
+	}
+
+	private static void compact(final Map<String, PostingList> postings, final long minSeq) {
+		for (final Iterator<PostingList> iterator = postings.values().iterator(); iterator.hasNext();) {
+			final PostingList list = iterator.next();
+			list.trim(minSeq);
+			if (list.isEmpty()) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of distinct text tokens currently indexed
+	 */
+	synchronized int getTokenCount() {
+		return tokenPostings.size();
+	}
+
+	/**
+	 * Computes the candidate entries for a filter.
+	 *
+	 * @param filter the filter
+	 * @param from the lowest sequence number of interest
+	 * @param to the sequence number behind the highest one of interest
+	 * @return the candidates, entries between <code>from</code> and {@link Candidates#from} are
+	 *         no longer indexed and have to be evaluated by the caller
+	 */
+	synchronized Candidates candidates(final LogFilter filter, final long from, final long to) {
+		final long indexed = Math.min(Math.max(from, indexedFrom), to);
+		return new Candidates(indexed, candidates0(filter, indexed, to));
+	}
+
+	/**
+	 * @return ascending candidate sequence numbers or <code>null</code> if the index can't narrow
+	 *         the filter down and all entries have to be evaluated
+	 */
+	private long[] candidates0(final LogFilter filter, final long from, final long to) {
+		if (filter instanceof LogFilters.Levels levels) {
+			final List<long[]> lists = new ArrayList<>();
+			for (final StandardLevel level : LEVELS) {
+				if (levels.accepted[level.ordinal()]) {
+					lists.add(levelPostings[level.ordinal()].range(from, to));
+				}
+			}
+			return union(lists);
+		} else if (filter instanceof LogFilters.Contains contains) {
+			if (contains.field == Field.SERVER) {
+				return null;
+			}
+			return contains.field == Field.LOGGER
+					? loggerCandidates(contains::matches, from, to)
+					: textCandidates(List.of(contains.term), from, to);
+		} else if (filter instanceof LogFilters.ContainsAny containsAny) {
+			if (containsAny.field == Field.SERVER) {
+				return null;
+			}
+			return containsAny.field == Field.LOGGER
+					? loggerCandidates(containsAny::matches, from, to)
+					: textCandidates(containsAny.terms, from, to);
+		} else if (filter instanceof LogFilters.Regex regex) {
+			return regex.field == Field.LOGGER ? loggerCandidates(regex::matches, from, to) : null;
+		} else if (filter instanceof LogFilters.Tokens tokens) {
+			return search(tokens.tokens, from, to);
+		} else if (filter instanceof LogFilters.And and) {
+			long[] result = null;
+			for (final LogFilter child : and.filters) {
+				final long[] candidates = candidates0(child, from, to);
+				if (candidates != null) {
+					result = result == null ? candidates : intersect(result, candidates);
+				}
+			}
+			return result;
+		} else if (filter instanceof LogFilters.Or or) {
+			final List<long[]> lists = new ArrayList<>();
+			for (final LogFilter child : or.filters) {
+				final long[] candidates = candidates0(child, from, to);
+				if (candidates == null) {
+					return null;
+				}
+				lists.add(candidates);
+			}
+			return union(lists);
+		}
+		return null;
+	}
+
+	/**
+	 * Intersects the postings of all tokens. Entries with overflowing tokens are included as well.
+	 */
+	private long[] search(final List<String> tokens, final long from, final long to) {
+		long[] result = null;
+		for (final String token : tokens) {
+			final PostingList postings = tokenPostings.get(token);
+			final long[] range = postings != null ? postings.range(from, to) : new long[0];
+			result = result == null ? range : intersect(result, range);
+		}
+		return union(List.of(result, overflowPostings.range(from, to)));
+	}
+
+	private long[] loggerCandidates(final Predicate<String> predicate, final long from, final long to) {
+		final List<long[]> lists = new ArrayList<>();
+		for (final Map.Entry<String, PostingList> entry : loggerPostings.entrySet()) {
+			if (predicate.test(entry.getKey())) {
+				lists.add(entry.getValue().range(from, to));
+			}
+		}
+		return union(lists);
+	}
+
+	/**
+	 * Substring matches can't be answered by exact token lookups, so all indexed tokens
+	 * containing the longest token of a term are considered.
+	 */
+	private long[] textCandidates(final List<String> terms, final long from, final long to) {
+		final List<long[]> lists = new ArrayList<>();
+		lists.add(overflowPostings.range(from, to));
+		for (final String term : terms) {
+			final String[] longest = new String[1];
+			tokenize(term, Integer.MAX_VALUE, token -> {
+				if (longest[0] == null || token.length() > longest[0].length()) {
+					longest[0] = token;
+				}
+			});
+			if (longest[0] == null) {
+				return null;
+			}
+			for (final Map.Entry<String, PostingList> entry : tokenPostings.entrySet()) {
+				if (entry.getKey().contains(longest[0])) {
+					lists.add(entry.getValue().range(from, to));
+				}
+			}
+		}
+		return union(lists);
+	}
+
+	/**
+	 * Splits a text into lower case tokens of letters and digits.
+	 *
+	 * @param text the text to split
+	 * @param limit the maximum number of tokens to pass to the consumer
+	 * @param consumer the consumer of the tokens
+	 * @return false if the text has more tokens than passed to the consumer
+	 */
+	static boolean tokenize(final String text, final int limit, final Consumer<String> consumer) {
+		int tokens = 0;
+		int start = -1;
+		for (int i = 0, len = text.length(); i <= len; i++) {
+			final boolean tokenChar = i < len && Character.isLetterOrDigit(text.charAt(i));
+			if (tokenChar && start < 0) {
+				start = i;
+			} else if ( ! tokenChar && start >= 0) {
+				if (i - start >= MIN_TOKEN_LENGTH) {
+					if (++tokens > limit) {
+						return false;
+					}
+					consumer.accept(text.substring(start, i).toLowerCase(Locale.ROOT));
+				}
+				start = -1;
+			}
+		}
+		return true;
+	}
+
+	static long[] intersect(final long[] a, final long[] b) {
+		final long[] result = new long[Math.min(a.length, b.length)];
+		int i = 0;
+		int j = 0;
+		int n = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				result[n++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	static long[] union(final List<long[]> lists) {
+		if (lists.size() == 1) {
+			return lists.get(0);
+		}
+		int total = 0;
+		for (final long[] list : lists) {
+			total += list.length;
+		}
+		final long[] all = new long[total];
+		int pos = 0;
+		for (final long[] list : lists) {
+			System.arraycopy(list, 0, all, pos, list.length);
+			pos += list.length;
+		}
+		Arrays.sort(all);
+		int n = 0;
+		for (int i = 0; i < all.length; i++) {
+			if (n == 0 || all[n - 1] != all[i]) {
+				all[n++] = all[i];
+			}
+		}
+		return Arrays.copyOf(all, n);
+	}
+
+	/**
+	 * The result of {@link LogIndex#candidates(LogFilter, long, long)}.
+	 */
+	static final class Candidates {
+		/** The lowest sequence number the candidates account for. */
+		final long from;
+		/** Ascending sequence numbers or <code>null</code> if all entries have to be evaluated. */
+		final long[] seqs;
+
+		Candidates(final long from, final long[] seqs) {
+			this.from = from;
+			this.seqs = seqs;
+		}
+	}
+}
@@ -0,0 +1,229 @@
+package de.mechrain.cli;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Merges the log messages of several connections into one stream ordered by timestamp.
+ * <p>
+ * Every source has its own bounded queue which is filled by the connection engine.
+ * {@link #take()} performs a k-way merge: it returns the oldest head of all queues once every
+ * other open source has a message queued as well, so nothing older can arrive from it, or once
+ * the head has waited for {@link #HOLD_BACK_MILLIS}, so an idle server doesn't stall the others.
+ * The number of sources is the number of servers, so the heads are compared by a linear scan
+ * instead of a heap.
+ * <p>
+ * Sources are added for every (re)connected server and dropped once closed and drained. Each
+ * source is expected to deliver its messages in timestamp order. Offering never blocks, the
+ * connection engine serves all servers on one thread. Instead a full queue runs the source's pause
+ * callback, the connection then stops reading so TCP flow control slows down that server only,
+ * and the resume callback runs once the merge drained the queue below {@link #LOW_WATER_MARK}.
+ * Both callbacks run under the merger lock, so a resume can't overtake the pause it answers.
+ */
+final class LogMerger {
+
+	/** How long a message may be held back waiting for older messages from idle servers. */
+	static final long HOLD_BACK_MILLIS = 250;
+	static final int QUEUE_CAPACITY = 16_384;
+	static final int LOW_WATER_MARK = QUEUE_CAPACITY / 2;
+
+	private final Lock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+	private final List<Source> sources = new ArrayList<>();
+	private boolean shutdown;
+
+	/**
+	 * Adds a source.
+	 *
+	 * @param pause called when the queue of the source is full, must not block
+	 * @param resume called after a pause once the queue drained below the low water mark, must
+	 *        not block
+	 * @return the source to offer the messages of a connection to
+	 */
+	Source open(final Runnable pause, final Runnable resume) {
+		lock.lock();
+		try {
+			final Source source = new Source(pause, resume);
+			sources.add(source);
+			changed.signalAll();
+			return source;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Lets {@link #take()} return <code>null</code> once all queued messages are taken.
+	 */
+	void shutdown() {
+		lock.lock();
+		try {
+			shutdown = true;
+			for (final Source source : sources) {
+				source.closed = true;
+			}
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Takes the next message in timestamp order, blocks while no source has a message.
+	 *
+	 * @return the message or <code>null</code> after {@link #shutdown()} once all queues are drained
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	LogMessage take() throws InterruptedException {
+		return poll(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Takes the next message in timestamp order, waits at most the given time.
+	 *
+	 * @param timeoutMillis the maximum time to wait
+	 * @return the message or <code>null</code> on timeout and after {@link #shutdown()} once all
+	 *         queues are drained, see {@link #isFinished()}
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	LogMessage poll(final long timeoutMillis) throws InterruptedException {
+		final long deadline = timeoutMillis == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		lock.lock();
+		try {
+			while (true) {
+				Source oldest = null;
+				boolean othersQueued = true;
+				for (int i = sources.size() - 1; i >= 0; i--) {
+					final Source source = sources.get(i);
+					final Entry head = source.queue.peekFirst();
+					if (head == null) {
+						if (source.closed) {
+							sources.remove(i);
+						} else {
+							othersQueued = false;
+						}
+					} else if (oldest == null || head.msg.getTimestamp() < oldest.queue.peekFirst().msg.getTimestamp()) {
+						oldest = source;
+					}
+				}
+				final long now = System.nanoTime();
+				final long remaining = deadline == Long.MAX_VALUE ? Long.MAX_VALUE : deadline - now;
+				if (oldest == null) {
+					if (shutdown || remaining <= 0) {
+						return null;
+					}
+					if (remaining == Long.MAX_VALUE) {
+						changed.await();
+					} else {
+						changed.awaitNanos(remaining);
+					}
+					continue;
+				}
+				final long waitNanos = TimeUnit.MILLISECONDS.toNanos(HOLD_BACK_MILLIS) - (now - oldest.queue.peekFirst().arrival);
+				if (othersQueued || waitNanos <= 0) {
+					final Entry entry = oldest.queue.removeFirst();
+					if (oldest.full && oldest.queue.size() < LOW_WATER_MARK) {
+						oldest.full = false;
+						oldest.resume.run();
+					}
+					return entry.msg;
+				}
+				if (remaining <= 0) {
+					return null;
+				}
+				changed.awaitNanos(Math.min(waitNanos, remaining));
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return true after {@link #shutdown()} once all queues are drained
+	 */
+	boolean isFinished() {
+		lock.lock();
+		try {
+			if ( ! shutdown) {
+				return false;
+			}
+			for (final Source source : sources) {
+				if ( ! source.queue.isEmpty()) {
+					return false;
+				}
+			}
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * The queue of one connection.
+	 */
+	final class Source {
+
+		private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+		private final Runnable pause;
+		private final Runnable resume;
+		private boolean closed;
+		/** Set once the queue reached its capacity until the resume callback ran. */
+		private boolean full;
+
+		private Source(final Runnable pause, final Runnable resume) {
+			this.pause = pause;
+			this.resume = resume;
+		}
+
+		/**
+		 * Queues a message without blocking. The capacity is a soft limit, messages offered after
+		 * the pause callback ran are still queued, e.g. the rest of the frames already read.
+		 *
+		 * @param msg the message
+		 */
+		void offer(final LogMessage msg) {
+			lock.lock();
+			try {
+				if (closed && shutdown) {
+					return;
+				}
+				queue.addLast(new Entry(msg, System.nanoTime()));
+				changed.signalAll();
+				if ( ! full && queue.size() >= QUEUE_CAPACITY) {
+					full = true;
+					pause.run();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Marks the source as closed, its queued messages are still delivered.
+		 */
+		void close() {
+			lock.lock();
+			try {
+				closed = true;
+				changed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private static final class Entry {
+		final LogMessage msg;
+		final long arrival;
+
+		Entry(final LogMessage msg, final long arrival) {
+			this.msg = msg;
+			this.arrival = arrival;
+		}
+	}
+}
@@ -2,10 +2,10 @@ package de.mechrain.cli;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
-import java.util.Date;
 
 import org.apache.logging.log4j.spi.StandardLevel;
+import org.jline.utils.AttributedStringBuilder;
+import org.jline.utils.AttributedStyle;
 
 import de.mechrain.cmdline.beans.LogEvent;
 
@@ -15,37 +15,80 @@ public class LogMessage {
 	private final long timestamp;
 	private final String text;
 	private final String loggerName;
+	private final int loggerId;
+	private final String server;
 	
 	public LogMessage(final LogEvent logEvent) {
+		this(logEvent, null);
+	}
+
+	/**
+	 * @param logEvent the received event
+	 * @param server the tag of the server the event was received from, <code>null</code> if only
+	 *        one server is connected
+	 */
+	public LogMessage(final LogEvent logEvent, final String server) {
 		this.level = StandardLevel.getStandardLevel(logEvent.getLevel());
 		this.timestamp = logEvent.getTimeMillis();
 		this.text = logEvent.getFormattedMessage();
-		this.loggerName = logEvent.getLoggerName();
+		this.loggerId = LogDictionary.LOGGERS.idOf(logEvent.getLoggerName());
+		this.loggerName = LogDictionary.LOGGERS.get(loggerId);
+		this.server = server;
+	}
+
+	LogMessage(final StandardLevel level, final long timestamp, final String loggerName, final String text) {
+		this(null, level, timestamp, loggerName, text);
+	}
+
+	LogMessage(final String server, final StandardLevel level, final long timestamp, final String loggerName, final String text) {
+		this(server, level, timestamp, LogDictionary.LOGGERS.idOf(loggerName), text);
+	}
+
+	/**
+	 * @param loggerId the id of the logger name in {@link LogDictionary#LOGGERS}
+	 */
+	LogMessage(final String server, final StandardLevel level, final long timestamp, final int loggerId, final String text) {
+		this.level = level;
+		this.timestamp = timestamp;
+		this.text = text;
+		this.loggerId = loggerId;
+		this.loggerName = LogDictionary.LOGGERS.get(loggerId);
+		this.server = server;
 	}
 
 	public StandardLevel getLevel() {
 		return level;
 	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
 	
 	public String getLoggerName() {
 		return loggerName;
 	}
+
+	/**
+	 * @return the id of the logger name in {@link LogDictionary#LOGGERS} or -1 if the message has
+	 *         no logger name
+	 */
+	int getLoggerId() {
+		return loggerId;
+	}
 	
 	public String getText() {
 		return text;
 	}
 
+	/**
+	 * @return the tag of the server the message was received from or <code>null</code>
+	 */
+	public String getServer() {
+		return server;
+	}
+
 	public void toConsoleOutput(final MechRainTerminal terminal, final LogConfig config) {
-        final StringBuilder sb = new StringBuilder(text.length() + 20);
-        if (config.isShowTime()) {
-        	sb.append(new Date(timestamp).toInstant().atZone(config.getZoneId()).format(config.getTimeFormatter()).toString()).append(' ');
-        }
-        if (config.isShowLoggerName()) {
-        	sb.append(loggerName).append(' ');
-        }
-        
-        final String msg = sb.append(text).toString();
-        
+		final String msg = LogFormatter.formatConsole(this, config).toString();
 		switch (level) {
 			case ERROR:
 			case FATAL:
@@ -68,38 +111,20 @@ public class LogMessage {
 		}
 	}
 	
+	/**
+	 * Appends the styled console line (without line break) to the given builder.
+	 * 
+	 * @param asb the builder to append to
+	 * @param config the log config
+	 */
+	public void appendConsoleOutput(final AttributedStringBuilder asb, final LogConfig config) {
+		asb.style(MechRainTerminal.styleOf(level));
+		asb.append(LogFormatter.formatConsole(this, config));
+		asb.style(AttributedStyle.DEFAULT);
+	}
+	
 	public void toLogOutput(final OutputStream os, final LogConfig config) throws IOException {
-		switch (level) {
-		case ERROR:
-		case FATAL:
-			os.write("[ERR] ".getBytes(StandardCharsets.ISO_8859_1));
-			break;
-		case WARN:
-			os.write("[WRN] ".getBytes(StandardCharsets.ISO_8859_1));
-			break;
-		case INFO:
-			os.write("[INF] ".getBytes(StandardCharsets.ISO_8859_1));
-			break;
-		case DEBUG:
-			os.write("[DBG] ".getBytes(StandardCharsets.ISO_8859_1));
-			break;
-		case TRACE:
-			os.write("[TRC] ".getBytes(StandardCharsets.ISO_8859_1));
-			break;
-		default:
-			os.write("[???] ".getBytes(StandardCharsets.ISO_8859_1));
-			break;
-		
-		}
-		
-		if (config.isShowTime()) {
-			os.write((new Date(timestamp).toInstant().atZone(config.getZoneId()).format(config.getTimeFormatter()).toString() + ' ').getBytes(StandardCharsets.ISO_8859_1));
-		}
-		if (config.isShowLoggerName()) {
-			os.write((loggerName + ' ').getBytes(StandardCharsets.ISO_8859_1));
-		}
-		os.write(text.getBytes(StandardCharsets.ISO_8859_1));
-		os.write("\n".getBytes(StandardCharsets.ISO_8859_1));
+		LogFormatter.writeLogLine(os, this, config);
 	}
 
 }
@@ -0,0 +1,253 @@
+package de.mechrain.cli;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Continuously records every received message to rotating segment files in a directory.
+ * <p>
+ * {@link #record(LogMessage)} only hands the message over to a bounded queue, so the connection
+ * is never slowed down by the disk. A writer thread drains the queue and commits all pending
+ * messages with a single write. If the writer can't keep up and the queue is full, messages are
+ * dropped and counted.
+ * <p>
+ * A segment (<code>.mrlog</code>) starts with {@link #MAGIC} followed by {@link LogCodec} records.
+ * It is rotated once it reaches the size limit or has been open for the time limit. Segment names
+ * start with the local time of creation, so sorting them by name restores the recording order. Every
+ * {@link #INDEX_INTERVAL} records an entry is appended to the <code>.idx</code> sidecar of the
+ * segment, see {@link RecordingReader#seek(long)}.
+ */
+public class LogRecorder implements Runnable, Closeable {
+
+	public static final String SEGMENT_SUFFIX = ".mrlog";
+	public static final String INDEX_SUFFIX = ".idx";
+	static final byte[] MAGIC = { 'M', 'R', 'L', 'O', 'G', 0, 0, 2 };
+	static final int INDEX_INTERVAL = 256;
+
+	public static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+	public static final long DEFAULT_SEGMENT_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+	private static final int QUEUE_CAPACITY = 65_536;
+	private static final int INITIAL_STAGING_SIZE = 1024 * 1024;
+	private static final DateTimeFormatter FILE_NAME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
+	private final Path directory;
+	private final long maxSegmentBytes;
+	private final long maxSegmentMillis;
+	private final BlockingQueue<LogMessage> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+	private final List<LogMessage> batch = new ArrayList<>(QUEUE_CAPACITY);
+	private final AtomicLong recorded = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final Thread thread;
+
+	private volatile boolean running = true;
+	private volatile IOException failure;
+
+	private ByteBuffer staging = ByteBuffer.allocate(INITIAL_STAGING_SIZE);
+	private ByteBuffer indexStaging = ByteBuffer.allocate(16 * 64);
+	private FileChannel segment;
+	private FileChannel index;
+	private long segmentBytes;
+	private long segmentRecords;
+	private long segmentStart;
+	private long maxTimestamp = Long.MIN_VALUE;
+
+	public LogRecorder(final Path directory, final long maxSegmentBytes, final long maxSegmentMillis) throws IOException {
+		this.directory = Files.createDirectories(directory);
+		this.maxSegmentBytes = maxSegmentBytes;
+		this.maxSegmentMillis = maxSegmentMillis;
+		this.thread = new Thread(this, "log-recorder");
+		this.thread.setDaemon(true);
+	}
+
+	public LogRecorder(final Path directory) throws IOException {
+		this(directory, DEFAULT_SEGMENT_BYTES, DEFAULT_SEGMENT_MILLIS);
+	}
+
+	public void start() {
+		thread.start();
+	}
+
+	/**
+	 * Queues a message for recording without blocking.
+	 *
+	 * @param msg the message
+	 */
+	public void record(final LogMessage msg) {
+		if ( ! queue.offer(msg)) {
+			dropped.incrementAndGet();
+		}
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	public long getRecorded() {
+		return recorded.get();
+	}
+
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return the error which stopped the recording or <code>null</code>
+	 */
+	public IOException getFailure() {
+		return failure;
+	}
+
+	public boolean isRunning() {
+		return running && failure == null;
+	}
+
+	/**
+	 * Stops recording, messages already queued are still written.
+	 */
+	@Override
+	public void close() {
+		running = false;
+		try {
+			thread.join(5_000);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running || ! queue.isEmpty()) {
+				final LogMessage first = queue.poll(pollMillis(), TimeUnit.MILLISECONDS);
+				if (first != null) {
+					batch.add(first);
+					queue.drainTo(batch);
+					write(batch);
+					batch.clear();
+				} else if (segment != null && System.currentTimeMillis() - segmentStart >= maxSegmentMillis) {
+					closeSegment();
+				}
+			}
+		} catch (final IOException e) {
+			failure = e;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			try {
+				closeSegment();
+			} catch (final IOException e) {
+				if (failure == null) {
+					failure = e;
+				}
+			}
+		}
+	}
+
+	private long pollMillis() {
+		if (segment == null) {
+			return 500;
+		}
+		return Math.max(1, Math.min(500, segmentStart + maxSegmentMillis - System.currentTimeMillis()));
+	}
+
+	/**
+	 * Writes a batch of messages with one write per touched segment and forces it to disk.
+	 */
+	private void write(final List<LogMessage> messages) throws IOException {
+		for (final LogMessage msg : messages) {
+			if (segment == null || segmentBytes + staging.position() >= maxSegmentBytes
+					|| System.currentTimeMillis() - segmentStart >= maxSegmentMillis) {
+				commit();
+				closeSegment();
+				openSegment();
+			}
+			final byte[] serverBytes = LogCodec.encodeServer(msg.getServer());
+			byte[] loggerBytes = LogCodec.encodeString(msg.getLoggerName());
+			if (loggerBytes.length > 0xFFFF) {
+				loggerBytes = Arrays.copyOf(loggerBytes, 0xFFFF);
+			}
+			final byte[] textBytes = LogCodec.encodeString(msg.getText());
+			final int size = LogCodec.encodedSize(serverBytes, loggerBytes, textBytes);
+			if (staging.remaining() < size) {
+				commit();
+				if (staging.capacity() < size) {
+					staging = ByteBuffer.allocate(size);
+				}
+			}
+			if (segmentRecords % INDEX_INTERVAL == 0) {
+				if ( ! indexStaging.hasRemaining()) {
+					commit();
+				}
+				indexStaging.putLong(maxTimestamp).putLong(segmentBytes + staging.position());
+			}
+			final int pos = staging.position();
+			staging.position(LogCodec.encode(staging, pos, msg.getLevel(), msg.getTimestamp(), serverBytes, loggerBytes, textBytes));
+			maxTimestamp = Math.max(maxTimestamp, msg.getTimestamp());
+			segmentRecords++;
+		}
+		commit();
+		segment.force(false);
+		recorded.addAndGet(messages.size());
+	}
+
+	private void commit() throws IOException {
+		if (segment == null) {
+			return;
+		}
+		staging.flip();
+		while (staging.hasRemaining()) {
+			segmentBytes += segment.write(staging);
+		}
+		staging.clear();
+		indexStaging.flip();
+		while (indexStaging.hasRemaining()) {
+			index.write(indexStaging);
+		}
+		indexStaging.clear();
+	}
+
+	private void openSegment() throws IOException {
+		final String name = LocalDateTime.now().format(FILE_NAME_FORMAT);
+		Path path = directory.resolve(name + SEGMENT_SUFFIX);
+		for (int i = 1; Files.exists(path); i++) {
+			path = directory.resolve(name + '_' + i + SEGMENT_SUFFIX);
+		}
+		segment = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		index = FileChannel.open(RecordingReader.indexPath(path), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		segment.write(ByteBuffer.wrap(MAGIC));
+		segmentBytes = MAGIC.length;
+		segmentRecords = 0;
+		segmentStart = System.currentTimeMillis();
+		maxTimestamp = Long.MIN_VALUE;
+	}
+
+	private void closeSegment() throws IOException {
+		if (segment == null) {
+			return;
+		}
+		commit();
+		try {
+			segment.force(false);
+			segment.close();
+		} finally {
+			index.close();
+			segment = null;
+			index = null;
+		}
+	}
+}
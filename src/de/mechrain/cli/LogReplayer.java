@@ -0,0 +1,391 @@
+package de.mechrain.cli;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.logging.log4j.spi.StandardLevel;
+
+import de.mechrain.cmdline.beans.LogEvent;
+
+/**
+ * Replays a log file offline through the same pipeline as a live connection.
+ * <p>
+ * Supported sources, detected by file name (a <code>.gz</code> suffix is decompressed):
+ * <ul>
+ * <li>a directory or <code>.mrlog</code> segment written by <code>record on</code></li>
+ * <li><code>.frames</code>, the raw length prefixed frame stream of a connection</li>
+ * <li><code>.jsonl</code>, a <code>dump --format jsonl</code></li>
+ * <li>anything else as a text <code>dump</code>; text dumps carry no date and the logger name is
+ * only recognized if it contains a '.'</li>
+ * </ul>
+ * Messages are replayed with their original timing divided by the speed factor, a speed of 0
+ * replays as fast as possible. Idle periods longer than {@link #MAX_IDLE_MILLIS} are shortened.
+ */
+public class LogReplayer {
+
+	public static final double MAX_SPEED = 0;
+
+	private static final long MAX_IDLE_MILLIS = 10_000;
+
+	private final Path path;
+	private final double speed;
+	private final ZoneId zoneId;
+
+	private long baseTimestamp;
+	private long baseNanos;
+	private long lastTimestamp;
+	private boolean started;
+	private long count;
+	private long skipped;
+
+	/**
+	 * @param path the file or recording directory to replay
+	 * @param speed the speed factor, {@link #MAX_SPEED} for as fast as possible
+	 * @param zoneId the zone of the times in text dumps
+	 */
+	public LogReplayer(final Path path, final double speed, final ZoneId zoneId) {
+		this.path = path;
+		this.speed = speed;
+		this.zoneId = zoneId;
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * @return the number of messages replayed so far
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the number of lines or frames which were not a log message
+	 */
+	public long getSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * Replays all messages to the consumer on the calling thread.
+	 *
+	 * @param sink the consumer of the messages
+	 * @throws IOException if reading fails
+	 * @throws InterruptedException if interrupted while waiting for the next message
+	 */
+	public void replay(final Consumer<LogMessage> sink) throws IOException, InterruptedException {
+		String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+		if (Files.isDirectory(path)) {
+			replayRecording(segments(path), sink);
+			return;
+		}
+		final boolean compressed = name.endsWith(".gz");
+		if (compressed) {
+			name = name.substring(0, name.length() - 3);
+		}
+		if ( ! compressed && (name.endsWith(LogRecorder.SEGMENT_SUFFIX) || RecordingReader.isRecording(path))) {
+			replayRecording(List.of(path), sink);
+			return;
+		}
+		try (final InputStream is = compressed ? new GZIPInputStream(Files.newInputStream(path), 64 * 1024) : Files.newInputStream(path)) {
+			if (name.endsWith(".frames")) {
+				replayFrames(is, sink);
+			} else {
+				final BufferedReader reader = new BufferedReader(new InputStreamReader(is, name.endsWith(".jsonl") ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1), 64 * 1024);
+				if (name.endsWith(".jsonl")) {
+					replayJsonLines(reader, sink);
+				} else {
+					replayText(reader, sink);
+				}
+			}
+		}
+	}
+
+	private static List<Path> segments(final Path directory) throws IOException {
+		final List<Path> segments = new ArrayList<>();
+		try (final Stream<Path> files = Files.list(directory)) {
+			files.filter(file -> file.getFileName().toString().endsWith(LogRecorder.SEGMENT_SUFFIX)).sorted().forEach(segments::add);
+		}
+		if (segments.isEmpty()) {
+			throw new IOException("No recorded segments in " + directory);
+		}
+		return segments;
+	}
+
+	private void replayRecording(final List<Path> segments, final Consumer<LogMessage> sink) throws IOException, InterruptedException {
+		for (final Path segment : segments) {
+			try (final RecordingReader reader = new RecordingReader(segment)) {
+				LogMessage msg;
+				while ((msg = reader.next()) != null) {
+					emit(msg, sink);
+				}
+			}
+		}
+	}
+
+	private void replayFrames(final InputStream is, final Consumer<LogMessage> sink) throws IOException, InterruptedException {
+		try (final FrameReader frameReader = new FrameReader(is)) {
+			while (true) {
+				final Object object;
+				try {
+					object = frameReader.readFrame();
+				} catch (final EOFException e) {
+					return;
+				}
+				if (object instanceof LogEvent event) {
+					emit(new LogMessage(event), sink);
+				} else {
+					skipped++;
+				}
+			}
+		}
+	}
+
+	private void replayJsonLines(final BufferedReader reader, final Consumer<LogMessage> sink) throws IOException, InterruptedException {
+		String line;
+		while ((line = reader.readLine()) != null) {
+			final LogMessage msg = line.isBlank() ? null : parseJsonLine(line);
+			if (msg != null) {
+				emit(msg, sink);
+			} else {
+				skipped++;
+			}
+		}
+	}
+
+	private void replayText(final BufferedReader reader, final Consumer<LogMessage> sink) throws IOException, InterruptedException {
+		final LocalDate date = LocalDate.now(zoneId);
+		long dayOffset = 0;
+		long previous = Long.MIN_VALUE;
+		String line;
+		while ((line = reader.readLine()) != null) {
+			final StandardLevel level = parseLevelPrefix(line);
+			if (level == null) {
+				skipped++;
+				continue;
+			}
+			int pos = 6;
+			long timestamp = previous != Long.MIN_VALUE ? previous : System.currentTimeMillis();
+			if (line.length() >= pos + 13 && line.charAt(pos + 12) == ' ') {
+				try {
+					final LocalTime time = LocalTime.parse(line.substring(pos, pos + 12));
+					timestamp = date.atTime(time).atZone(zoneId).toInstant().toEpochMilli() + dayOffset;
+					if (previous != Long.MIN_VALUE && timestamp < previous - 12 * 3_600_000L) {
+						/* passed midnight */
+						dayOffset += 24 * 3_600_000L;
+						timestamp += 24 * 3_600_000L;
+					}
+					pos += 13;
+				} catch (final DateTimeParseException e) {
+					// dumped without time
+				}
+			}
+			String server = null;
+			if (pos < line.length() && line.charAt(pos) == '@') {
+				final int end = line.indexOf(' ', pos);
+				if (end > pos + 1) {
+					server = line.substring(pos + 1, end);
+					pos = end + 1;
+				}
+			}
+			String loggerName = "";
+			final int space = line.indexOf(' ', pos);
+			if (space > pos && line.lastIndexOf('.', space) > pos) {
+				loggerName = line.substring(pos, space);
+				pos = space + 1;
+			}
+			previous = timestamp;
+			emit(new LogMessage(server, level, timestamp, loggerName, line.substring(Math.min(pos, line.length()))), sink);
+		}
+	}
+
+	private static StandardLevel parseLevelPrefix(final String line) {
+		if (line.length() < 6 || line.charAt(0) != '[' || line.charAt(4) != ']' || line.charAt(5) != ' ') {
+			return null;
+		}
+		switch (line.substring(1, 4)) {
+		case "ERR":
+			return StandardLevel.ERROR;
+		case "WRN":
+			return StandardLevel.WARN;
+		case "INF":
+			return StandardLevel.INFO;
+		case "DBG":
+			return StandardLevel.DEBUG;
+		case "TRC":
+			return StandardLevel.TRACE;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Parses a line written by {@link LogFormatter#writeJsonLine}, a flat object with the fields
+	 * timestamp, level, logger, text and optionally server.
+	 *
+	 * @return the message or <code>null</code> if the line can't be parsed
+	 */
+	static LogMessage parseJsonLine(final String line) {
+		long timestamp = 0;
+		StandardLevel level = StandardLevel.INFO;
+		String loggerName = "";
+		String server = null;
+		String text = "";
+		final int[] pos = { skipWhitespace(line, 0) };
+		if (pos[0] >= line.length() || line.charAt(pos[0]) != '{') {
+			return null;
+		}
+		pos[0]++;
+		while (true) {
+			pos[0] = skipWhitespace(line, pos[0]);
+			if (pos[0] < line.length() && line.charAt(pos[0]) == '}') {
+				return new LogMessage(server, level, timestamp, loggerName, text);
+			}
+			final String key = parseJsonString(line, pos);
+			pos[0] = skipWhitespace(line, pos[0]);
+			if (key == null || pos[0] >= line.length() || line.charAt(pos[0]) != ':') {
+				return null;
+			}
+			pos[0] = skipWhitespace(line, pos[0] + 1);
+			final String value;
+			if (pos[0] < line.length() && line.charAt(pos[0]) == '"') {
+				value = parseJsonString(line, pos);
+				if (value == null) {
+					return null;
+				}
+			} else {
+				final int start = pos[0];
+				while (pos[0] < line.length() && ",} \t".indexOf(line.charAt(pos[0])) < 0) {
+					pos[0]++;
+				}
+				final String literal = line.substring(start, pos[0]);
+				value = literal.equals("null") ? null : literal;
+			}
+			try {
+				switch (key) {
+				case "timestamp":
+					timestamp = Long.parseLong(value);
+					break;
+				case "level":
+					level = StandardLevel.valueOf(value);
+					break;
+				case "logger":
+					loggerName = value != null ? value : "";
+					break;
+				case "server":
+					server = value;
+					break;
+				case "text":
+					text = value != null ? value : "";
+					break;
+				default:
+					break;
+				}
+			} catch (final IllegalArgumentException | NullPointerException e) {
+				return null;
+			}
+			pos[0] = skipWhitespace(line, pos[0]);
+			if (pos[0] < line.length() && line.charAt(pos[0]) == ',') {
+				pos[0]++;
+			}
+		}
+	}
+
+	private static String parseJsonString(final String line, final int[] pos) {
+		if (pos[0] >= line.length() || line.charAt(pos[0]) != '"') {
+			return null;
+		}
+		final StringBuilder sb = new StringBuilder();
+		int i = pos[0] + 1;
+		while (i < line.length()) {
+			final char c = line.charAt(i++);
+			if (c == '"') {
+				pos[0] = i;
+				return sb.toString();
+			}
+			if (c != '\\' || i >= line.length()) {
+				sb.append(c);
+				continue;
+			}
+			final char escaped = line.charAt(i++);
+			switch (escaped) {
+			case 'n':
+				sb.append('\n');
+				break;
+			case 'r':
+				sb.append('\r');
+				break;
+			case 't':
+				sb.append('\t');
+				break;
+			case 'b':
+				sb.append('\b');
+				break;
+			case 'f':
+				sb.append('\f');
+				break;
+			case 'u':
+				if (i + 4 > line.length()) {
+					return null;
+				}
+				try {
+					sb.append((char) Integer.parseInt(line.substring(i, i + 4), 16));
+				} catch (final NumberFormatException e) {
+					return null;
+				}
+				i += 4;
+				break;
+			default:
+				sb.append(escaped);
+				break;
+			}
+		}
+		return null;
+	}
+
+	private static int skipWhitespace(final String line, int pos) {
+		while (pos < line.length() && Character.isWhitespace(line.charAt(pos))) {
+			pos++;
+		}
+		return pos;
+	}
+
+	/**
+	 * Waits until the message is due and passes it on.
+	 */
+	private void emit(final LogMessage msg, final Consumer<LogMessage> sink) throws InterruptedException {
+		if (speed > MAX_SPEED) {
+			final long timestamp = msg.getTimestamp();
+			if ( ! started || timestamp - lastTimestamp > MAX_IDLE_MILLIS) {
+				baseTimestamp = timestamp;
+				baseNanos = System.nanoTime();
+				started = true;
+			}
+			final long due = baseNanos + (long) ((timestamp - baseTimestamp) * 1_000_000 / speed);
+			final long waitMillis = (due - System.nanoTime()) / 1_000_000;
+			if (waitMillis > 0) {
+				Thread.sleep(waitMillis);
+			}
+			lastTimestamp = Math.max(lastTimestamp, timestamp);
+		}
+		sink.accept(msg);
+		count++;
+	}
+}
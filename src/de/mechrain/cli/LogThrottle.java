@@ -0,0 +1,169 @@
+package de.mechrain.cli;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Keeps log storms out of the buffer and the terminal.
+ * <p>
+ * Consecutive messages with the same server, logger, level and text are collapsed: the first one
+ * is passed on, the repeats are only counted and summarized by a
+ * <code>last message repeated N times</code> line once another message arrives or at least every
+ * {@link #REPEAT_SUMMARY_MILLIS}. Distinct messages are then limited by a token bucket per logger
+ * as configured with {@link LogConfig#setRateLimit(String, int)}. The lines exceeding the rate are
+ * counted and summarized once the logger is below the rate again.
+ * <p>
+ * Apart from the counters not thread safe, must only be called from the thread ingesting the
+ * messages.
+ */
+final class LogThrottle {
+
+	static final long REPEAT_SUMMARY_MILLIS = 1_000;
+
+	private final LogConfig logConfig;
+	private final Consumer<LogMessage> out;
+	private final Map<String, Bucket> buckets = new HashMap<>();
+
+	/** The last message passed on, repeats are compared with it. */
+	private LogMessage last;
+	private LogMessage lastRepeat;
+	private int repeats;
+	private long repeatsSince;
+	/** The newest timestamp passed on, the summary lines must not go back in time. */
+	private long lastTimestamp = Long.MIN_VALUE;
+
+	/* read by the prompt thread */
+	private final AtomicLong collapsed = new AtomicLong();
+	private final AtomicLong rateLimited = new AtomicLong();
+
+	/**
+	 * @param logConfig the config holding the rate limits
+	 * @param out receives the messages passing and the summary lines
+	 */
+	LogThrottle(final LogConfig logConfig, final Consumer<LogMessage> out) {
+		this.logConfig = logConfig;
+		this.out = out;
+	}
+
+	void accept(final LogMessage msg) {
+		final long now = System.nanoTime();
+		if (last != null && isRepeat(last, msg)) {
+			if (repeats++ == 0) {
+				repeatsSince = now;
+			}
+			lastRepeat = msg;
+			collapsed.incrementAndGet();
+			if (now - repeatsSince >= TimeUnit.MILLISECONDS.toNanos(REPEAT_SUMMARY_MILLIS)) {
+				summarizeRepeats();
+			}
+			return;
+		}
+		summarizeRepeats();
+		final Integer limit = logConfig.getRateLimits().get(msg.getLoggerName());
+		if (limit != null) {
+			final Bucket bucket = buckets.computeIfAbsent(msg.getLoggerName(), name -> new Bucket(now));
+			if ( ! bucket.tryTake(limit, now)) {
+				bucket.suppressed++;
+				bucket.lastSuppressed = msg;
+				rateLimited.incrementAndGet();
+				return;
+			}
+			summarizeSuppressed(bucket);
+		} else if ( ! buckets.isEmpty()) {
+			/* the limit was removed */
+			final Bucket bucket = buckets.remove(msg.getLoggerName());
+			if (bucket != null) {
+				summarizeSuppressed(bucket);
+			}
+		}
+		last = msg;
+		pass(msg);
+	}
+	
+	private void pass(final LogMessage msg) {
+		lastTimestamp = Math.max(lastTimestamp, msg.getTimestamp());
+		out.accept(msg);
+	}
+
+	/**
+	 * Summarizes pending repeats and suppressed lines, called while no messages arrive.
+	 */
+	void flush() {
+		summarizeRepeats();
+		for (final Bucket bucket : buckets.values()) {
+			summarizeSuppressed(bucket);
+		}
+	}
+
+	/**
+	 * @return the number of repeated messages collapsed into summary lines
+	 */
+	long getCollapsed() {
+		return collapsed.get();
+	}
+
+	/**
+	 * @return the number of messages dropped by the rate limits
+	 */
+	long getRateLimited() {
+		return rateLimited.get();
+	}
+
+	private static boolean isRepeat(final LogMessage last, final LogMessage msg) {
+		return last.getLevel() == msg.getLevel()
+				&& last.getText().equals(msg.getText())
+				&& last.getLoggerId() == msg.getLoggerId()
+				&& Objects.equals(last.getServer(), msg.getServer());
+	}
+
+	private void summarizeRepeats() {
+		if (repeats == 0) {
+			return;
+		}
+		pass(new LogMessage(last.getServer(), last.getLevel(), Math.max(lastTimestamp, lastRepeat.getTimestamp()), last.getLoggerName(),
+				"last message repeated " + repeats + (repeats == 1 ? " time" : " times")));
+		repeats = 0;
+		lastRepeat = null;
+	}
+
+	private void summarizeSuppressed(final Bucket bucket) {
+		if (bucket.suppressed == 0) {
+			return;
+		}
+		final LogMessage msg = bucket.lastSuppressed;
+		pass(new LogMessage(msg.getServer(), msg.getLevel(), Math.max(lastTimestamp, msg.getTimestamp()), msg.getLoggerName(),
+				bucket.suppressed + (bucket.suppressed == 1 ? " line" : " lines") + " suppressed by rate limit"));
+		bucket.suppressed = 0;
+		bucket.lastSuppressed = null;
+	}
+
+	/**
+	 * Token bucket of one logger holding up to one second of lines.
+	 */
+	private static final class Bucket {
+
+		private double tokens;
+		private long refilled;
+		long suppressed;
+		LogMessage lastSuppressed;
+
+		Bucket(final long now) {
+			this.tokens = Double.MAX_VALUE;
+			this.refilled = now;
+		}
+
+		boolean tryTake(final int perSecond, final long now) {
+			tokens = Math.min(perSecond, tokens + (now - refilled) * perSecond / 1e9);
+			refilled = now;
+			if (tokens < 1) {
+				return false;
+			}
+			tokens--;
+			return true;
+		}
+	}
+}
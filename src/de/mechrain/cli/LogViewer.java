@@ -0,0 +1,392 @@
+package de.mechrain.cli;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jline.keymap.BindingReader;
+import org.jline.keymap.KeyMap;
+import org.jline.terminal.Attributes;
+import org.jline.terminal.Size;
+import org.jline.terminal.Terminal;
+import org.jline.utils.AttributedString;
+import org.jline.utils.AttributedStringBuilder;
+import org.jline.utils.AttributedStyle;
+import org.jline.utils.Display;
+import org.jline.utils.InfoCmp.Capability;
+import org.jline.utils.NonBlockingReader;
+
+/**
+ * Full screen pager over the {@link LogBuffer}.
+ * <p>
+ * The viewer only remembers the sequence number of the bottom line and reads the visible window
+ * from a fresh snapshot on every render, so browsing large buffers needs no additional memory.
+ * While positioned at the bottom new messages are tailed live.
+ */
+public class LogViewer {
+
+	private enum Op {
+		LINE_UP,
+		LINE_DOWN,
+		PAGE_UP,
+		PAGE_DOWN,
+		HOME,
+		END,
+		JUMP_TIME,
+		SEARCH,
+		OLDER_MATCH,
+		NEWER_MATCH,
+		QUIT
+	}
+
+	private static final long REFRESH_MILLIS = 250;
+	private static final int ESCAPE = 27;
+	private static final String HELP = "q quit  Up/Down PgUp/PgDn  g/G top/bottom  t time  / search  n/N older/newer";
+
+	private final Terminal terminal;
+	private final LogBuffer logBuffer;
+	private final LogConfig logConfig;
+	private final Display display;
+	private final BindingReader bindingReader;
+	private final KeyMap<Op> keyMap = new KeyMap<>();
+
+	/** Sequence number of the bottom line, -1 while following the newest messages. */
+	private long bottomSeq = -1;
+	private long highlightSeq = -1;
+	private String searchQuery;
+	private String status = HELP;
+	private long renderedEnd = -1;
+	private int bodyRows;
+	private final List<Long> visibleSeqs = new ArrayList<>();
+
+	public LogViewer(final Terminal terminal, final LogBuffer logBuffer, final LogConfig logConfig) {
+		this.terminal = terminal;
+		this.logBuffer = logBuffer;
+		this.logConfig = logConfig;
+		this.display = new Display(terminal, true);
+		this.bindingReader = new BindingReader(terminal.reader());
+		bind(Op.LINE_UP, Capability.key_up, "k", "\033[A", "\033OA");
+		bind(Op.LINE_DOWN, Capability.key_down, "j", "\r", "\033[B", "\033OB");
+		bind(Op.PAGE_UP, Capability.key_ppage, "b", "\033[5~");
+		bind(Op.PAGE_DOWN, Capability.key_npage, " ", "f", "\033[6~");
+		bind(Op.HOME, Capability.key_home, "g", "<", "\033[H", "\033OH");
+		bind(Op.END, Capability.key_end, "G", ">", "\033[F", "\033OF");
+		keyMap.bind(Op.JUMP_TIME, "t");
+		keyMap.bind(Op.SEARCH, "/");
+		keyMap.bind(Op.OLDER_MATCH, "n");
+		keyMap.bind(Op.NEWER_MATCH, "N");
+		keyMap.bind(Op.QUIT, "q", KeyMap.ctrl('C'));
+	}
+
+	private void bind(final Op op, final Capability capability, final String... keys) {
+		final String key = KeyMap.key(terminal, capability);
+		if (key != null && ! key.isEmpty()) {
+			keyMap.bind(op, key);
+		}
+		for (final String fallback : keys) {
+			keyMap.bindIfNotBound(op, fallback);
+		}
+	}
+
+	/**
+	 * Shows the viewer until the user quits.
+	 */
+	public void run() {
+		final Attributes attributes = terminal.enterRawMode();
+		terminal.puts(Capability.enter_ca_mode);
+		terminal.puts(Capability.keypad_xmit);
+		terminal.flush();
+		try {
+			render(true);
+			while (true) {
+				final int c = bindingReader.peekCharacter(REFRESH_MILLIS);
+				if (c == NonBlockingReader.READ_EXPIRED) {
+					render(false);
+					continue;
+				}
+				if (c == NonBlockingReader.EOF) {
+					break;
+				}
+				final Op op = bindingReader.readBinding(keyMap, null, false);
+				if (op == Op.QUIT) {
+					break;
+				}
+				if (op != null) {
+					handle(op);
+				}
+				render(true);
+			}
+		} finally {
+			terminal.puts(Capability.keypad_local);
+			terminal.puts(Capability.exit_ca_mode);
+			terminal.flush();
+			terminal.setAttributes(attributes);
+		}
+	}
+
+	private void handle(final Op op) {
+		final LogBuffer.Snapshot snapshot = logBuffer.snapshot();
+		final LogFilter filter = logConfig.getFilter();
+		final long top = visibleSeqs.isEmpty() ? snapshot.getToSeq() : visibleSeqs.get(0);
+		final long bottom = visibleSeqs.isEmpty() ? snapshot.getToSeq() - 1 : visibleSeqs.get(visibleSeqs.size() - 1);
+		status = HELP;
+		switch (op) {
+		case LINE_UP:
+			if (previousMatch(snapshot, filter, top) >= 0) {
+				bottomSeq = previousMatch(snapshot, filter, bottom);
+			}
+			break;
+		case PAGE_UP: {
+			final long above = previousMatch(snapshot, filter, top);
+			if (above >= 0) {
+				bottomSeq = above;
+			}
+			break;
+		}
+		case LINE_DOWN:
+			showFrom(snapshot, filter, bottom + 1, 1);
+			break;
+		case PAGE_DOWN:
+			showFrom(snapshot, filter, bottom + 1, bodyRows);
+			break;
+		case HOME:
+			showFrom(snapshot, filter, snapshot.getFromSeq(), bodyRows);
+			break;
+		case END:
+			bottomSeq = -1;
+			break;
+		case JUMP_TIME:
+			jumpToTime(snapshot, filter, readInput("time (HH:mm[:ss])> "));
+			break;
+		case SEARCH:
+			search(bottom);
+			break;
+		case OLDER_MATCH:
+			if (searchQuery != null) {
+				final long match = previousMatch(snapshot, searchFilter(searchQuery), highlightSeq >= 0 ? highlightSeq : bottom + 1);
+				showMatch(match);
+			}
+			break;
+		case NEWER_MATCH:
+			if (searchQuery != null) {
+				final long match = nextMatch(snapshot, searchFilter(searchQuery), highlightSeq >= 0 ? highlightSeq + 1 : top);
+				showMatch(match);
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Moves the view forward so that it ends with the <code>lines</code>th match starting at the
+	 * given sequence number. Switches to following if the end of the buffer is reached.
+	 */
+	private void showFrom(final LogBuffer.Snapshot snapshot, final LogFilter filter, final long from, final int lines) {
+		final long[] last = { -1 };
+		final int[] count = { 0 };
+		snapshot.range(from, snapshot.getToSeq()).select(filter, (seq, msg) -> {
+			last[0] = seq;
+			return ++count[0] < lines;
+		});
+		if (count[0] < lines || nextMatch(snapshot, filter, last[0] + 1) < 0) {
+			bottomSeq = -1;
+		} else {
+			bottomSeq = last[0];
+		}
+	}
+
+	private static long previousMatch(final LogBuffer.Snapshot snapshot, final LogFilter filter, final long before) {
+		final long[] result = { -1 };
+		snapshot.range(snapshot.getFromSeq(), before).selectDescending(filter, (seq, msg) -> {
+			result[0] = seq;
+			return false;
+		});
+		return result[0];
+	}
+
+	private static long nextMatch(final LogBuffer.Snapshot snapshot, final LogFilter filter, final long from) {
+		final long[] result = { -1 };
+		snapshot.range(from, snapshot.getToSeq()).select(filter, (seq, msg) -> {
+			result[0] = seq;
+			return false;
+		});
+		return result[0];
+	}
+
+	private void jumpToTime(final LogBuffer.Snapshot snapshot, final LogFilter filter, final String input) {
+		if (input == null || input.isBlank()) {
+			return;
+		}
+		final LocalTime time;
+		try {
+			time = LocalTime.parse(input.trim());
+		} catch (final DateTimeParseException e) {
+			status = "invalid time '" + input + "'";
+			return;
+		}
+		ZonedDateTime target = LocalDate.now(logConfig.getZoneId()).atTime(time).atZone(logConfig.getZoneId());
+		if (target.isAfter(ZonedDateTime.now(logConfig.getZoneId()))) {
+			target = target.minusDays(1);
+		}
+		final long targetMillis = target.toInstant().toEpochMilli();
+
+		/* sequence numbers are assigned in arrival order, so timestamps are ascending */
+		long low = snapshot.getFromSeq();
+		long high = snapshot.getToSeq();
+		while (low < high) {
+			final long mid = (low + high) >>> 1;
+			final LogMessage msg = snapshot.get(mid);
+			if (msg == null || msg.getTimestamp() < targetMillis) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		final long first = nextMatch(snapshot, filter, low);
+		if (first < 0) {
+			status = "no messages after " + input;
+			bottomSeq = -1;
+			return;
+		}
+		highlightSeq = first;
+		showFrom(snapshot, filter, first, bodyRows);
+	}
+
+	/**
+	 * Incremental search: every key stroke jumps to the newest match at or above the line the
+	 * search started from. Enter keeps the position, escape restores it.
+	 */
+	private void search(final long startBottom) {
+		final long savedBottom = bottomSeq;
+		final long savedHighlight = highlightSeq;
+		final StringBuilder query = new StringBuilder();
+		while (true) {
+			status = "/" + query;
+			render(true);
+			final int c = bindingReader.readCharacter();
+			if (c == '\r' || c == '\n') {
+				searchQuery = query.length() > 0 ? query.toString() : searchQuery;
+				status = HELP;
+				return;
+			}
+			if (c == ESCAPE || c == NonBlockingReader.EOF || c == 3) {
+				bottomSeq = savedBottom;
+				highlightSeq = savedHighlight;
+				status = HELP;
+				return;
+			}
+			if (c == 127 || c == 8) {
+				if (query.length() > 0) {
+					query.setLength(query.length() - 1);
+				}
+			} else if (c >= ' ') {
+				query.appendCodePoint(c);
+			}
+			if (query.length() > 0) {
+				final long match = previousMatch(logBuffer.snapshot(), searchFilter(query.toString()), startBottom + 1);
+				if (match >= 0) {
+					showMatch(match);
+				} else {
+					highlightSeq = -1;
+				}
+			}
+		}
+	}
+
+	private LogFilter searchFilter(final String query) {
+		return LogFilters.and(List.of(logConfig.getFilter(), LogFilters.contains(LogFilters.Field.TEXT, List.of(query), true)));
+	}
+
+	private void showMatch(final long match) {
+		if (match < 0) {
+			status = "no more matches for '" + searchQuery + "'";
+			return;
+		}
+		highlightSeq = match;
+		if ( ! visibleSeqs.contains(match)) {
+			bottomSeq = match;
+		}
+	}
+
+	private String readInput(final String prompt) {
+		final StringBuilder input = new StringBuilder();
+		while (true) {
+			status = prompt + input;
+			render(true);
+			final int c = bindingReader.readCharacter();
+			if (c == '\r' || c == '\n') {
+				return input.toString();
+			}
+			if (c == ESCAPE || c == NonBlockingReader.EOF || c == 3) {
+				return null;
+			}
+			if (c == 127 || c == 8) {
+				if (input.length() > 0) {
+					input.setLength(input.length() - 1);
+				}
+			} else if (c >= ' ') {
+				input.appendCodePoint(c);
+			}
+		}
+	}
+
+	private void render(final boolean force) {
+		final LogBuffer.Snapshot snapshot = logBuffer.snapshot();
+		if ( ! force && (bottomSeq >= 0 || snapshot.getToSeq() == renderedEnd)) {
+			return;
+		}
+		renderedEnd = snapshot.getToSeq();
+
+		final Size size = terminal.getSize();
+		final int rows = Math.max(2, size.getRows());
+		final int columns = Math.max(10, size.getColumns());
+		bodyRows = rows - 1;
+		display.resize(rows, columns);
+
+		final LogFilter filter = logConfig.getFilter();
+		final long end = bottomSeq >= 0 ? bottomSeq + 1 : snapshot.getToSeq();
+		final List<AttributedString> lines = new ArrayList<>(rows);
+		visibleSeqs.clear();
+		snapshot.range(snapshot.getFromSeq(), end).selectDescending(filter, (seq, msg) -> {
+			visibleSeqs.add(seq);
+			lines.add(toLine(msg, seq == highlightSeq, columns));
+			return lines.size() < bodyRows;
+		});
+		Collections.reverse(visibleSeqs);
+		Collections.reverse(lines);
+		while (lines.size() < bodyRows) {
+			lines.add(AttributedString.EMPTY);
+		}
+
+		final AttributedStringBuilder statusLine = new AttributedStringBuilder();
+		statusLine.style(AttributedStyle.INVERSE);
+		statusLine.append(bottomSeq < 0 ? "[FOLLOW] " : "[" + (snapshot.getToSeq() - 1 - bottomSeq) + " newer] ");
+		statusLine.append(status);
+		lines.add(statusLine.toAttributedString().columnSubSequence(0, columns));
+		display.update(lines, -1);
+		terminal.flush();
+	}
+
+	private AttributedString toLine(final LogMessage msg, final boolean highlight, final int columns) {
+		final AttributedStringBuilder asb = new AttributedStringBuilder();
+		msg.appendConsoleOutput(asb, logConfig);
+		AttributedString line = asb.toAttributedString();
+		final int newline = line.toString().indexOf('\n');
+		if (newline >= 0) {
+			line = line.subSequence(0, newline);
+		}
+		line = line.columnSubSequence(0, columns);
+		if (highlight) {
+			final AttributedStringBuilder highlighted = new AttributedStringBuilder();
+			highlighted.style(AttributedStyle.INVERSE);
+			highlighted.append(line.toString());
+			line = highlighted.toAttributedString();
+		}
+		return line;
+	}
+}
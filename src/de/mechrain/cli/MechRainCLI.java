@@ -5,18 +5,21 @@ import static de.mechrain.cli.MechRainTerminal.CONFIG;
 import static de.mechrain.cli.MechRainTerminal.DUMP;
 import static de.mechrain.cli.MechRainTerminal.FILTER;
 import static de.mechrain.cli.MechRainTerminal.RECONNECT;
+import static de.mechrain.cli.MechRainTerminal.RECORD;
+import static de.mechrain.cli.MechRainTerminal.RUN;
+import static de.mechrain.cli.MechRainTerminal.SEARCH;
+import static de.mechrain.cli.MechRainTerminal.SERVER;
 import static de.mechrain.cli.MechRainTerminal.SET;
 import static de.mechrain.cli.MechRainTerminal.SHOW;
+import static de.mechrain.cli.MechRainTerminal.VIEW;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.Socket;
-import java.net.SocketTimeoutException;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
 
 import org.apache.commons.lang3.StringUtils;
@@ -29,8 +32,14 @@ import de.mechrain.cli.LogConfig.FilterBy;
 
 public class MechRainCLI implements Callable<Integer> {
 
+	private static final long DEFAULT_SERIES_WINDOW = 3_600_000L;
+	private static final long RUNNER_STOP_MILLIS = 2_000;
+
 	int port = 5000;
 	boolean reconnect = true;
+	Path replayPath;
+	double replaySpeed = 1;
+	Path scriptPath;
 
 	static long start;
 
@@ -43,9 +52,38 @@ public class MechRainCLI implements Callable<Integer> {
 	@Override
 	public Integer call() throws Exception {
 		final LogConfig config = new LogConfig();
+		try {
+			if (replayPath != null) {
+				return replay(config);
+			}
+			try (final ConnectionEngine engine = new ConnectionEngine()) {
+				engine.start();
+				final ServerDiscovery discovery = new ServerDiscovery(engine, terminal, port);
+				final ConsoleOutputRunner outputRunner = new ConsoleOutputRunner(discovery, terminal, config);
+				final Thread cliThread = new Thread(outputRunner, "console-output");
+				cliThread.setDaemon(true);
+				cliThread.start();
+				try {
+					return connectAndPrompt(discovery, outputRunner, config);
+				} finally {
+					/* the runner stops once the remaining messages are processed */
+					outputRunner.stop();
+					cliThread.join(RUNNER_STOP_MILLIS);
+				}
+			}
+		} finally {
+			config.flush();
+		}
+	}
+	
+	/**
+	 * Connects and prompts until the user exits. The output runner and its buffer are kept
+	 * across reconnects.
+	 */
+	private Integer connectAndPrompt(final ServerDiscovery discovery, final ConsoleOutputRunner outputRunner, final LogConfig config) throws IOException, InterruptedException {
 		do {
-			final Socket socket = connect(port);
-			if (socket == null) {
+			final List<ServerConnection> connections = discovery.connect();
+			if (connections.isEmpty()) {
 				if (reconnect) {
 					System.out.println("Re-attempting");
 					continue;
@@ -56,51 +94,84 @@ public class MechRainCLI implements Callable<Integer> {
 			} else {
 				terminal.clear();
 				terminal.printHeader();
-				terminal.printInfo("Connection established (took " + (System.currentTimeMillis() - start) + "ms) ");
+				terminal.printInfo("Connection established to " + (connections.size() == 1 ? "1 server" : connections.size() + " servers")
+						+ " (took " + (System.currentTimeMillis() - start) + "ms) ");
 			}
 			
-			try (final InputStream inputStream = socket.getInputStream();
-					final OutputStream outputStream = socket.getOutputStream()) {
-				final ConsoleOutputRunner outputRunner = new ConsoleOutputRunner(inputStream, outputStream, terminal, config);
-				final Thread cliThread = new Thread(outputRunner);
-				cliThread.start();
-				
-				boolean running = true;
-				while (running) {
-					terminal.maybeWaitForNonInteractive();
-					final String line;
-					try {
-						line = terminal.readLine("MechRain> ");
-					} catch (final UserInterruptException e) {
-						if (terminal.getMode() == MechRainTerminal.Mode.DEVICE) {
-							terminal.printInfo("Switched to general mode");
-							outputRunner.endConfigDevice();
-						} else {
-							terminal.printInfo("Exiting CLI");
-							running = false;
-							reconnect = false;
-						}
-						continue;
-					}
-					
-					final String[] splits = line.split(" ");
-					
-					switch (terminal.getMode()) {
-					case GENERAL:
-						running = handleGeneral(splits, outputRunner, config, socket);
-						break;
-					case DEVICE:
-						handleDevice(splits, outputRunner);
-						break;
-					}
-				}
+			outputRunner.attach(connections);
+			outputRunner.discoverNewServers();
+			if (scriptPath != null) {
+				reconnect = false;
+				return outputRunner.runScript(scriptPath.toString()) ? 0 : 3;
+			}
+			try {
+				prompt(outputRunner, config);
+			} finally {
+				outputRunner.disconnect();
 			}
 		}
 		while (reconnect);
 		return 1;
 	}
+	
+	/**
+	 * Replays a recorded log instead of connecting to a server, the prompt stays available to
+	 * investigate the replayed log.
+	 */
+	private Integer replay(final LogConfig config) throws IOException, InterruptedException {
+		if ( ! Files.exists(replayPath)) {
+			System.err.println("No such file " + replayPath);
+			return 2;
+		}
+		terminal.clear();
+		terminal.printHeader();
+		terminal.printInfo("Replaying " + replayPath + (replaySpeed == LogReplayer.MAX_SPEED ? " as fast as possible" : " at speed " + replaySpeed));
+		final ConsoleOutputRunner outputRunner = new ConsoleOutputRunner(new LogReplayer(replayPath, replaySpeed, config.getZoneId()), terminal, config);
+		final Thread replayThread = new Thread(outputRunner, "log-replayer");
+		replayThread.setDaemon(true);
+		replayThread.start();
+		reconnect = false;
+		try {
+			prompt(outputRunner, config);
+		} finally {
+			outputRunner.close();
+		}
+		return 0;
+	}
+	
+	private void prompt(final ConsoleOutputRunner outputRunner, final LogConfig config) throws IOException, InterruptedException {
+		boolean running = true;
+		while (running) {
+			terminal.maybeWaitForNonInteractive();
+			final String line;
+			try {
+				line = terminal.readLine("MechRain> ");
+			} catch (final UserInterruptException e) {
+				if (terminal.getMode() == MechRainTerminal.Mode.DEVICE) {
+					terminal.printInfo("Switched to general mode");
+					outputRunner.endConfigDevice();
+				} else {
+					terminal.printInfo("Exiting CLI");
+					running = false;
+					reconnect = false;
+				}
+				continue;
+			}
+			
+			final String[] splits = line.split(" ");
+			
+			switch (terminal.getMode()) {
+			case GENERAL:
+				running = handleGeneral(splits, outputRunner, config);
+				break;
+			case DEVICE:
+				handleDevice(splits, outputRunner);
+				break;
+			}
+		}
+	}
 
-	private boolean handleGeneral(final String[] splits, final ConsoleOutputRunner outputRunner, final LogConfig config, final Socket socket) throws IOException {
+	private boolean handleGeneral(final String[] splits, final ConsoleOutputRunner outputRunner, final LogConfig config) throws IOException {
 		boolean redraw = false;
 		boolean running = true;
 		switch (splits[0].toLowerCase()) {
@@ -119,11 +190,23 @@ public class MechRainCLI implements Callable<Integer> {
 			outputRunner.configDevice(splits[2]);
 			break;
 		case DUMP:
-			if (splits.length != 2) {
-				terminal.printError("expected 2 arguments but got " + splits.length);
-				return true;
+			if (splits.length == 2) {
+				outputRunner.dumpToFile(splits[1], LogDumper.Format.TEXT);
+			} else if (splits.length == 4 && splits[1].equalsIgnoreCase("--format")) {
+				switch (splits[2].toLowerCase()) {
+				case "text":
+					outputRunner.dumpToFile(splits[3], LogDumper.Format.TEXT);
+					break;
+				case "jsonl":
+					outputRunner.dumpToFile(splits[3], LogDumper.Format.JSONL);
+					break;
+				default:
+					terminal.printError("Unkown format '" + splits[2] + "', expected 'text' or 'jsonl'");
+					break;
+				}
+			} else {
+				terminal.printError("expected 'dump [--format text|jsonl] <file>'");
 			}
-			outputRunner.dumpToFile(splits[1]);
 			break;
 		case FILTER:
 			if (splits.length < 2) {
@@ -136,8 +219,7 @@ public class MechRainCLI implements Callable<Integer> {
 					terminal.printError("expected at least 3 arguments but got " + splits.length);
 					return true;
 				}
-				config.setFilterBy(FilterBy.LOG_NAME);
-				config.setFilterString(splits[2]);
+				config.setFilter(FilterBy.LOG_NAME, splits[2]);
 				redraw = true;
 				break;
 			case "text":
@@ -145,8 +227,22 @@ public class MechRainCLI implements Callable<Integer> {
 					terminal.printError("expected at least 3 arguments but got " + splits.length);
 					return true;
 				}
-				config.setFilterBy(FilterBy.TEXT);
-				config.setFilterString(splits[2]);
+				config.setFilter(FilterBy.TEXT, splits[2]);
+				redraw = true;
+				break;
+			case "expr":
+				if (splits.length < 3) {
+					terminal.printError("expected at least 3 arguments but got " + splits.length);
+					return true;
+				}
+				final String expression = StringUtils.join(splits, ' ', 2, splits.length);
+				try {
+					FilterParser.parse(expression);
+				} catch (final IllegalArgumentException e) {
+					terminal.printError("Invalid filter expression: " + e.getMessage());
+					return true;
+				}
+				config.setFilter(FilterBy.EXPRESSION, expression);
 				redraw = true;
 				break;
 			case "off":
@@ -158,7 +254,49 @@ public class MechRainCLI implements Callable<Integer> {
 				break;
 			}
 			break;
+		case RECORD:
+			if (splits.length == 1) {
+				outputRunner.showRecording();
+			} else if (splits[1].equalsIgnoreCase("on") && splits.length == 3) {
+				outputRunner.startRecording(splits[2]);
+			} else if (splits[1].equalsIgnoreCase("off") && splits.length == 2) {
+				outputRunner.stopRecording();
+			} else {
+				terminal.printError("expected 'record on <directory>' or 'record off'");
+			}
+			break;
+		case RUN:
+			if (splits.length < 2) {
+				terminal.printError("expected 'run <file>'");
+				return true;
+			}
+			outputRunner.runScript(StringUtils.join(splits, ' ', 1, splits.length));
+			break;
+		case SEARCH:
+			if (splits.length < 2) {
+				terminal.printError("expected at least 2 arguments but got " + splits.length);
+				return true;
+			}
+			outputRunner.search(StringUtils.join(splits, ' ', 1, splits.length));
+			break;
+		case SERVER:
+			if (splits.length == 1) {
+				outputRunner.showServers();
+			} else if (splits.length == 2) {
+				outputRunner.selectServer(splits[1]);
+			} else {
+				terminal.printError("expected 'server' or 'server <tag>'");
+			}
+			break;
 		case SHOW:
+			if (splits.length >= 3 && splits[1].equalsIgnoreCase("series")) {
+				try {
+					outputRunner.showSeries(splits[2], splits.length > 3 ? MetricStore.parseDuration(splits[3]) : DEFAULT_SERIES_WINDOW);
+				} catch (final IllegalArgumentException e) {
+					terminal.printError(e.getMessage());
+				}
+				return true;
+			}
 			if (splits.length != 2) {
 				terminal.printError("expected 2 arguments but got " + splits.length);
 				return true;
@@ -167,18 +305,34 @@ public class MechRainCLI implements Callable<Integer> {
 			case "buffer":
 				outputRunner.showBuffer();
 				break;
+			case "dashboard":
+				outputRunner.showDashboard();
+				break;
 			case "devices":
 				outputRunner.showDevices();
 				break;
 			case "diagram":
 				showDiagram();
 				break;
+			case "latency":
+				outputRunner.showLatency();
+				break;
+			case "ratelimits":
+				showRateLimits(config);
+				break;
+			case "metrics":
+				outputRunner.showMetrics();
+				break;
 			default:
 				terminal.printError("Unkown show option " + splits[1]);
 				break;
 			}
 			break;
 		case SET:
+			if (splits.length == 4 && splits[1].equalsIgnoreCase("ratelimit")) {
+				setRateLimit(splits[2], splits[3], config);
+				return true;
+			}
 			if (splits.length != 3) {
 				terminal.printError("expected 3 arguments but got " + splits.length);
 				return true;
@@ -244,10 +398,40 @@ public class MechRainCLI implements Callable<Integer> {
 				}
 				redraw = true;
 				break;
+			case "scrollback":
+				try {
+					final int scrollback = Integer.parseInt(splits[2]);
+					if (scrollback < 0) {
+						terminal.printError("Scrollback must not be negative");
+						return true;
+					}
+					if (scrollback > config.getBufferCapacity()) {
+						terminal.printError("Scrollback must not exceed the buffer capacity of " + config.getBufferCapacity() + " lines");
+						return true;
+					}
+					config.setRedrawScrollback(scrollback);
+				} catch (final NumberFormatException e) {
+					terminal.printError("Not a valid number of lines:" + splits[2]);
+				}
+				break;
+			default:
+				terminal.printError("Unkown set option " + splits[1]);
+				break;
 			}
 			break;
+		case VIEW:
+			if (splits.length != 2 || ! splits[1].equalsIgnoreCase("log")) {
+				terminal.printError("expected 'view log'");
+				return true;
+			}
+			outputRunner.viewLog();
+			break;
 		case RECONNECT:
-			socket.close();
+			if ( ! outputRunner.isConnected()) {
+				terminal.printError("Not connected to a server");
+				return true;
+			}
+			outputRunner.disconnect();
 			running = false;
 			reconnect = true;
 			start = System.currentTimeMillis();
@@ -272,6 +456,39 @@ public class MechRainCLI implements Callable<Integer> {
 		return running;
 	}
 
+	/**
+	 * Handles <code>set ratelimit &lt;logger&gt; &lt;lines per second&gt;|off</code>.
+	 */
+	private void setRateLimit(final String loggerName, final String rate, final LogConfig config) {
+		if (rate.equalsIgnoreCase("off")) {
+			config.setRateLimit(loggerName, 0);
+			terminal.printInfo("Removed the rate limit of " + loggerName);
+			return;
+		}
+		try {
+			final int perSecond = Integer.parseInt(rate);
+			if (perSecond <= 0) {
+				terminal.printError("Rate limit must be positive, use 'off' to remove it");
+				return;
+			}
+			config.setRateLimit(loggerName, perSecond);
+			terminal.printInfo("Limited " + loggerName + " to " + perSecond + " lines per second");
+		} catch (final NumberFormatException e) {
+			terminal.printError("Not a valid number of lines per second:" + rate);
+		}
+	}
+
+	private void showRateLimits(final LogConfig config) {
+		final Map<String, Integer> limits = config.getRateLimits();
+		if (limits.isEmpty()) {
+			terminal.printInfo("No rate limits, see 'set ratelimit <logger> <lines per second>|off'");
+			return;
+		}
+		for (final Map.Entry<String, Integer> limit : new TreeMap<>(limits).entrySet()) {
+			terminal.printInfo(limit.getKey() + ": " + limit.getValue() + " lines per second");
+		}
+	}
+
 	private void handleDevice(final String[] splits, final ConsoleOutputRunner outputRunner) {
 		switch (splits[0].toLowerCase()) {
 		case "add":
@@ -419,44 +636,46 @@ public class MechRainCLI implements Callable<Integer> {
 		terminal.printAbove(asb);
 	}
 
-	private Socket connect(final int udpPort) throws IOException {
-		try (final DatagramSocket socket = new DatagramSocket(9999)) {
-			socket.setBroadcast(true);
-			socket.setSoTimeout(5_000);
-
-			
-			final boolean connectToTest = System.getProperty("test") != null;
-			
-			terminal.write("Waiting for connection" + (connectToTest ? " to CLI test server" : ""));
-
-			while (true) {
+	/**
+	 * Parses the command line options <code>--replay &lt;file&gt; [--speed &lt;factor&gt;|max]</code>
+	 * or <code>--script &lt;file&gt;</code>.
+	 * 
+	 * @return false if the options are invalid
+	 */
+	boolean parseArgs(final String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--replay") && i + 1 < args.length) {
+				replayPath = Paths.get(args[++i]);
+			} else if (args[i].equals("--script") && i + 1 < args.length) {
+				scriptPath = Paths.get(args[++i]);
+			} else if (args[i].equals("--speed") && i + 1 < args.length) {
+				final String speed = args[++i];
 				try {
-					final byte[] payload = connectToTest ? "CLI-TEST".getBytes(StandardCharsets.UTF_8) : "CLI-HELLO".getBytes(StandardCharsets.UTF_8);
-					final DatagramPacket broadcast = new DatagramPacket(payload, payload.length, InetAddress.getByName("255.255.255.255"), udpPort);
-					socket.send(broadcast);
-
-					final byte[] buf = new byte[256];
-					final DatagramPacket response = new DatagramPacket(buf, buf.length);
-					socket.receive(response);
-
-					final String responseString = new String(response.getData(), 0, response.getLength());
-					final String port = responseString.substring(responseString.lastIndexOf("PORT=") + 5);
-					final Socket result = new Socket(response.getAddress(), Integer.valueOf(port));
-
-					return result;
-				} catch (final SocketTimeoutException e) {
-					terminal.write(".");
+					replaySpeed = speed.equalsIgnoreCase("max") ? LogReplayer.MAX_SPEED : Double.parseDouble(speed);
+				} catch (final NumberFormatException e) {
+					System.err.println("Invalid speed " + speed);
+					return false;
+				}
+				if (replaySpeed < 0) {
+					System.err.println("Speed must not be negative");
+					return false;
 				}
+			} else {
+				System.err.println("Unknown option " + args[i]);
+				System.err.println("Usage: MechRainCLI [--replay <file> [--speed <factor>|max] | --script <file>]");
+				return false;
 			}
 		}
+		return true;
 	}
 
-
 	public static void main(final String[] args) throws Exception {
 		start = System.currentTimeMillis();
 		final MechRainTerminal terminal = new MechRainTerminal();
 		MechRainCLI cli = new MechRainCLI(terminal);
-		cli.call();
-		System.exit(1);
+		if ( ! cli.parseArgs(args)) {
+			System.exit(2);
+		}
+		System.exit(cli.call());
 	}
 }
@@ -4,10 +4,12 @@ import static org.jline.builtins.Completers.TreeCompleter.node;
 
 import java.io.IOException;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 
+import org.apache.logging.log4j.spi.StandardLevel;
 import org.fusesource.jansi.AnsiConsole;
 import org.jline.builtins.Completers.TreeCompleter;
 import org.jline.reader.Completer;
@@ -31,8 +33,17 @@ public class MechRainTerminal {
 	public static final String DUMP = "dump";
 	public static final String FILTER = "filter";
 	public static final String RECONNECT = "reconnect";
+	public static final String RECORD = "record";
+	public static final String RUN = "run";
+	public static final String SEARCH = "search";
+	public static final String SERVER = "server";
 	public static final String SHOW = "show";
 	public static final String SET = "set";
+	public static final String VIEW = "view";
+	
+	private static final int DEFAULT_HEIGHT = 24;
+	/** Lines held back while a full screen view is open, older ones are dropped. */
+	private static final int MAX_HELD_BACK = 1_000;
 	
 	private boolean interactive = false;
 	private Lock lock = new ReentrantLock();
@@ -43,23 +54,41 @@ public class MechRainTerminal {
 					node("buffer")),
 			node(CONFIG,
 					node("device")),
-			node(DUMP),
+			node(DUMP,
+					node("--format",
+							node("text", "jsonl"))),
 			node(FILTER,
 					node("logName"),
 					node("text"),
+					node("expr"),
 					node("off")),
 			node(RECONNECT),
+			node(RECORD,
+					node("on"),
+					node("off")),
+			node(RUN),
+			node(SEARCH),
+			node(SERVER),
 			node(SHOW,
 					node("buffer"),
+					node("dashboard"),
 					node("devices"),
-					node("diagram")),
+					node("diagram"),
+					node("latency"),
+					node("metrics"),
+					node("ratelimits"),
+					node("series")),
 			node(SET,
 					node("level", 
 							node("off", "err", "warn", "info", "debug", "trace")),
 					node("time", 
 							node("off", "on")),
 					node("logName", 
-							node("off", "on"))),
+							node("off", "on")),
+					node("ratelimit"),
+					node("scrollback")),
+			node(VIEW,
+					node("log")),
 			node("switch")
 		);
 
@@ -86,12 +115,22 @@ public class MechRainTerminal {
 	
 	private LineReader activeReader;
 	private Mode mode = Mode.GENERAL;
+	/** Output of other threads while a full screen view owns the screen, guarded by itself. */
+	private final ArrayDeque<String> heldBack = new ArrayDeque<>();
+	/* guarded by heldBack */
+	private boolean fullScreen;
+	private int droppedHeldBack;
 	
 	public MechRainTerminal() throws IOException {
-		AnsiConsole.systemInstall();
-		this.terminal = TerminalBuilder.builder()
-				.system(true).provider("jni")
-				.build();
+		this(systemTerminal());
+	}
+	
+	/**
+	 * @param terminal the terminal to use instead of the system terminal, e.g. a dumb terminal
+	 *        discarding the output in the benchmarks
+	 */
+	MechRainTerminal(final Terminal terminal) {
+		this.terminal = terminal;
 		this.generalReader = LineReaderBuilder.builder()
 				.terminal(terminal)
 				.completer(generalCompleter)
@@ -107,6 +146,13 @@ public class MechRainTerminal {
 		
 		this.activeReader = generalReader;
 	}
+	
+	private static Terminal systemTerminal() throws IOException {
+		AnsiConsole.systemInstall();
+		return TerminalBuilder.builder()
+				.system(true).provider("jni")
+				.build();
+	}
 
 	public void printHeader() {
 		terminal.writer().println();
@@ -193,22 +239,124 @@ public class MechRainTerminal {
 		printAbove(AttributedStyle.DEFAULT, AttributedStyle.BLUE, trace);
 	}
 	
+	/**
+	 * @param level the log level
+	 * @return the style log lines of the given level are printed with
+	 */
+	public static AttributedStyle styleOf(final StandardLevel level) {
+		switch (level) {
+		case ERROR:
+		case FATAL:
+			return AttributedStyle.BOLD.foreground(AttributedStyle.RED);
+		case WARN:
+			return AttributedStyle.BOLD.foreground(AttributedStyle.YELLOW);
+		case INFO:
+			return AttributedStyle.DEFAULT.foreground(AttributedStyle.GREEN);
+		case DEBUG:
+			return AttributedStyle.DEFAULT.foreground(AttributedStyle.CYAN);
+		case TRACE:
+			return AttributedStyle.DEFAULT.foreground(AttributedStyle.BLUE);
+		default:
+			return AttributedStyle.DEFAULT;
+		}
+	}
+	
 	private void printAbove(final AttributedStyle style, final int color, final String text) {
 		final AttributedStringBuilder asb = new AttributedStringBuilder();
 		asb.style(style.foreground(color));
 		asb.append(text);
 		asb.style(AttributedStyle.DEFAULT);
-		activeReader.printAbove(asb.toAnsi(terminal));
+		printAbove(asb.toAnsi(terminal));
 	}
 	
 	public void printAbove(final AttributedStringBuilder asb) {
-		activeReader.printAbove(asb.toAnsi(terminal));
+		printAbove(asb.toAnsi(terminal));
+	}
+	
+	private void printAbove(final String ansi) {
+		synchronized (heldBack) {
+			if (fullScreen) {
+				if (heldBack.size() == MAX_HELD_BACK) {
+					heldBack.removeFirst();
+					droppedHeldBack++;
+				}
+				heldBack.addLast(ansi);
+				return;
+			}
+		}
+		activeReader.printAbove(ansi);
+	}
+	
+	/**
+	 * Holds back the output of other threads until {@link #leaveFullScreen()}, so it doesn't draw
+	 * over a full screen view.
+	 */
+	private void enterFullScreen() {
+		synchronized (heldBack) {
+			fullScreen = true;
+		}
+	}
+	
+	/**
+	 * Prints the output held back while the full screen view was open.
+	 */
+	private void leaveFullScreen() {
+		synchronized (heldBack) {
+			fullScreen = false;
+			if (droppedHeldBack > 0) {
+				printAbove(AttributedStyle.DEFAULT, AttributedStyle.YELLOW, droppedHeldBack + " older messages were dropped while the view was open");
+				droppedHeldBack = 0;
+			}
+			String ansi;
+			while ((ansi = heldBack.pollFirst()) != null) {
+				activeReader.printAbove(ansi);
+			}
+		}
+	}
+	
+	/**
+	 * Shows the full screen log viewer until the user quits it. Messages printed meanwhile are
+	 * shown afterwards.
+	 * 
+	 * @param logBuffer the buffer to browse
+	 * @param logConfig the log config
+	 */
+	public void viewLog(final LogBuffer logBuffer, final LogConfig logConfig) {
+		enterFullScreen();
+		try {
+			new LogViewer(terminal, logBuffer, logConfig).run();
+		} finally {
+			leaveFullScreen();
+		}
+	}
+	
+	/**
+	 * Shows the full screen sensor dashboard until the user quits it. Messages printed meanwhile
+	 * are shown afterwards.
+	 * 
+	 * @param metrics the readings to show
+	 */
+	public void showDashboard(final MetricStore metrics) {
+		enterFullScreen();
+		try {
+			new Dashboard(terminal, metrics).run();
+		} finally {
+			leaveFullScreen();
+		}
 	}
 	
 	public void write(final String msg) {
 		terminal.writer().write(msg);
 	}
 
+	/**
+	 * @return the number of rows of the terminal, a default if the size is unknown
+	 */
+	public int getHeight() {
+		final int rows = terminal.getSize().getRows();
+		return rows > 0 ? rows : DEFAULT_HEIGHT;
+	}
+
 	public Mode getMode() {
 		return mode;
 	}
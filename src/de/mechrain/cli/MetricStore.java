@@ -0,0 +1,159 @@
+package de.mechrain.cli;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sensor readings extracted from the received data unit messages, one {@link TimeSeries} per
+ * device and metric. Devices of different servers are told apart by the server tag, see
+ * {@link DataUnitParser}.
+ * <p>
+ * Memory per series is bounded: at most the maximum number of raw readings, about 12KB per 1024,
+ * plus about 300KB of fixed size rollup and dashboard buckets.
+ */
+public class MetricStore implements DataUnitParser.Sink {
+
+	/** Readings kept per series, about 12KB per 1024 readings. */
+	public static final int DEFAULT_MAX_READINGS = 100_000;
+	public static final long DEFAULT_RAW_RETENTION_MILLIS = 24 * 3_600_000L;
+
+	private static final Comparator<TimeSeries> ORDER = Comparator.comparing(TimeSeries::getMetric).thenComparing(TimeSeries::getDevice);
+
+	/** metric -> device -> series */
+	private final Map<String, Map<String, TimeSeries>> series = new ConcurrentHashMap<>();
+	private final int maxReadings;
+	private final long rawRetentionMillis;
+
+	/**
+	 * @param maxReadings the maximum number of raw readings kept per series
+	 * @param rawRetentionMillis how long raw readings are kept, older ones are only held in rollups
+	 */
+	public MetricStore(final int maxReadings, final long rawRetentionMillis) {
+		this.maxReadings = maxReadings;
+		this.rawRetentionMillis = rawRetentionMillis;
+	}
+
+	public MetricStore() {
+		this(DEFAULT_MAX_READINGS, DEFAULT_RAW_RETENTION_MILLIS);
+	}
+
+	/**
+	 * Extracts the readings of a message if it is a data unit message.
+	 *
+	 * @param msg the log message
+	 * @return the number of readings found
+	 */
+	public int accept(final LogMessage msg) {
+		return DataUnitParser.parse(msg, this);
+	}
+
+	@Override
+	public void accept(final String device, final String metric, final long timestamp, final double value) {
+		series.computeIfAbsent(metric, k -> new ConcurrentHashMap<>())
+			.computeIfAbsent(device, k -> new TimeSeries(device, metric, maxReadings, rawRetentionMillis))
+			.add(timestamp, value);
+	}
+
+	/**
+	 * @return all series ordered by metric and device
+	 */
+	public List<TimeSeries> getSeries() {
+		final List<TimeSeries> result = new ArrayList<>();
+		for (final Map<String, TimeSeries> devices : series.values()) {
+			result.addAll(devices.values());
+		}
+		result.sort(ORDER);
+		return result;
+	}
+
+	/**
+	 * @param metric the metric name, case insensitive
+	 * @return the series of all devices for the metric ordered by device
+	 */
+	public List<TimeSeries> getSeries(final String metric) {
+		final List<TimeSeries> result = new ArrayList<>();
+		for (final Map.Entry<String, Map<String, TimeSeries>> entry : series.entrySet()) {
+			if (entry.getKey().equalsIgnoreCase(metric)) {
+				result.addAll(entry.getValue().values());
+			}
+		}
+		result.sort(ORDER);
+		return result;
+	}
+
+	/**
+	 * Parses a duration like <code>30s</code>, <code>15m</code>, <code>2h</code> or <code>7d</code>.
+	 *
+	 * @param duration the duration
+	 * @return the duration in milliseconds
+	 * @throws IllegalArgumentException if the duration is invalid
+	 */
+	public static long parseDuration(final String duration) {
+		final String value = duration.trim().toLowerCase(Locale.ROOT);
+		if (value.length() < 2) {
+			throw new IllegalArgumentException("Invalid duration '" + duration + "', expected e.g. 30s, 15m, 2h or 7d");
+		}
+		final long unit;
+		switch (value.charAt(value.length() - 1)) {
+		case 's':
+			unit = 1_000L;
+			break;
+		case 'm':
+			unit = 60_000L;
+			break;
+		case 'h':
+			unit = 3_600_000L;
+			break;
+		case 'd':
+			unit = 86_400_000L;
+			break;
+		default:
+			throw new IllegalArgumentException("Invalid duration '" + duration + "', expected e.g. 30s, 15m, 2h or 7d");
+		}
+		try {
+			final long amount = Long.parseLong(value.substring(0, value.length() - 1));
+			if (amount <= 0) {
+				throw new IllegalArgumentException("Duration must be positive");
+			}
+			return amount * unit;
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid duration '" + duration + "', expected e.g. 30s, 15m, 2h or 7d");
+		}
+	}
+
+	/**
+	 * Formats a duration in the largest unit dividing it, e.g. <code>10s</code> or <code>1h</code>.
+	 */
+	public static String formatDuration(final long millis) {
+		if (millis % 86_400_000L == 0) {
+			return millis / 86_400_000L + "d";
+		}
+		if (millis % 3_600_000L == 0) {
+			return millis / 3_600_000L + "h";
+		}
+		if (millis % 60_000L == 0) {
+			return millis / 60_000L + "m";
+		}
+		if (millis % 1_000L == 0) {
+			return millis / 1_000L + "s";
+		}
+		return millis + "ms";
+	}
+
+	/**
+	 * Formats a value without trailing zeros.
+	 */
+	public static String format(final double value) {
+		if (Double.isNaN(value)) {
+			return "-";
+		}
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			return Long.toString((long) value);
+		}
+		return String.format(Locale.ROOT, "%.2f", value);
+	}
+}
@@ -0,0 +1,83 @@
+package de.mechrain.cli;
+
+/**
+ * Ascending list of buffer sequence numbers. New numbers are appended at the tail, evicted ones
+ * are trimmed from the head, so the list is kept in a growable ring.
+ */
+final class PostingList {
+
+	private static final int INITIAL_SIZE = 4;
+
+	private long[] seqs = new long[INITIAL_SIZE];
+	private int head;
+	private int size;
+
+	void add(final long seq) {
+		if (size == seqs.length) {
+			resize(seqs.length * 2);
+		}
+		seqs[(head + size) % seqs.length] = seq;
+		size++;
+	}
+
+	/**
+	 * Removes all sequence numbers below the given one.
+	 */
+	void trim(final long minSeq) {
+		while (size > 0 && seqs[head] < minSeq) {
+			head = (head + 1) % seqs.length;
+			size--;
+		}
+		if (seqs.length > INITIAL_SIZE * 4 && size < seqs.length / 4) {
+			resize(seqs.length / 2);
+		}
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return the sequence numbers within [from, to) in ascending order
+	 */
+	long[] range(final long from, final long to) {
+		final int start = lowerBound(from);
+		final int end = lowerBound(to);
+		final long[] result = new long[Math.max(0, end - start)];
+		for (int i = start; i < end; i++) {
+			result[i - start] = get(i);
+		}
+		return result;
+	}
+
+	private long get(final int index) {
+		return seqs[(head + index) % seqs.length];
+	}
+
+	private int lowerBound(final long seq) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (get(mid) < seq) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private void resize(final int length) {
+		final long[] resized = new long[length];
+		for (int i = 0; i < size; i++) {
+			resized[i] = get(i);
+		}
+		seqs = resized;
+		head = 0;
+	}
+}
@@ -0,0 +1,156 @@
+package de.mechrain.cli;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Sequential reader of a segment file written by the {@link LogRecorder}.
+ * <p>
+ * A segment that is still being written or was cut off by a crash can be read up to its last
+ * complete record.
+ */
+public class RecordingReader implements Closeable {
+
+	private static final int READ_BUFFER_SIZE = 256 * 1024;
+
+	private final Path path;
+	private final FileChannel channel;
+	private ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+	public RecordingReader(final Path path) throws IOException {
+		this.path = path;
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		final byte[] magic = new byte[LogRecorder.MAGIC.length];
+		final ByteBuffer magicBuffer = ByteBuffer.wrap(magic);
+		while (magicBuffer.hasRemaining() && channel.read(magicBuffer) >= 0) {
+			// read the complete header
+		}
+		if ( ! Arrays.equals(magic, LogRecorder.MAGIC)) {
+			channel.close();
+			throw new IOException(path + " is not a recorded log segment");
+		}
+		buffer.flip();
+	}
+
+	/**
+	 * @param segment the path of a segment
+	 * @return the path of the timestamp index of the segment
+	 */
+	static Path indexPath(final Path segment) {
+		final String name = segment.getFileName().toString();
+		return segment.resolveSibling(name.substring(0, name.length() - LogRecorder.SEGMENT_SUFFIX.length()) + LogRecorder.INDEX_SUFFIX);
+	}
+
+	/**
+	 * @param path the path of a file
+	 * @return true if the file starts like a recorded segment
+	 */
+	public static boolean isRecording(final Path path) {
+		try (final FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final ByteBuffer magic = ByteBuffer.allocate(LogRecorder.MAGIC.length);
+			fileChannel.read(magic);
+			return Arrays.equals(magic.array(), LogRecorder.MAGIC);
+		} catch (final IOException e) {
+			return false;
+		}
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * Positions the reader in front of the first record with a timestamp at or after the given one.
+	 * <p>
+	 * Each index entry holds the highest timestamp of all records before a position. The reader
+	 * starts at the last entry below the timestamp and skips forward from there, so the result is
+	 * exact even if timestamps are not strictly ascending. Without an index the segment is scanned
+	 * from the start.
+	 *
+	 * @param timestamp the timestamp in milliseconds
+	 * @return the first message at or after the timestamp or <code>null</code> if there is none
+	 * @throws IOException if reading fails
+	 */
+	public LogMessage seek(final long timestamp) throws IOException {
+		long offset = LogRecorder.MAGIC.length;
+		final Path indexPath = indexPath(path);
+		if (Files.exists(indexPath)) {
+			final ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(indexPath));
+			int low = 0;
+			int high = index.capacity() / 16 - 1;
+			while (low <= high) {
+				final int mid = (low + high) >>> 1;
+				if (index.getLong(mid * 16) < timestamp) {
+					offset = index.getLong(mid * 16 + 8);
+					low = mid + 1;
+				} else {
+					high = mid - 1;
+				}
+			}
+		}
+		channel.position(offset);
+		buffer.clear().flip();
+		LogMessage msg;
+		while ((msg = next()) != null && msg.getTimestamp() < timestamp) {
+			// skip older messages
+		}
+		return msg;
+	}
+
+	/**
+	 * @return the next message or <code>null</code> at the end of the segment
+	 * @throws IOException if reading fails
+	 */
+	public LogMessage next() throws IOException {
+		if ( ! fill(LogCodec.HEADER_SIZE)) {
+			return null;
+		}
+		final int size = LogCodec.recordSize(buffer, buffer.position());
+		if (size < LogCodec.HEADER_SIZE) {
+			throw new EOFException("Corrupt record in " + path);
+		}
+		if ( ! fill(size)) {
+			return null;
+		}
+		final LogMessage msg = LogCodec.decode(buffer, buffer.position());
+		buffer.position(buffer.position() + size);
+		return msg;
+	}
+
+	/**
+	 * Makes sure the given number of bytes is available in the buffer.
+	 *
+	 * @return false if the segment ends before
+	 */
+	private boolean fill(final int bytes) throws IOException {
+		if (buffer.remaining() >= bytes) {
+			return true;
+		}
+		if (buffer.capacity() < bytes) {
+			final ByteBuffer larger = ByteBuffer.allocate(Math.max(bytes, buffer.capacity() * 2));
+			larger.put(buffer).flip();
+			buffer = larger;
+		}
+		buffer.compact();
+		while (buffer.position() < bytes) {
+			if (channel.read(buffer) < 0) {
+				buffer.flip();
+				return false;
+			}
+		}
+		buffer.flip();
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
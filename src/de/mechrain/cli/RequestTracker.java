@@ -0,0 +1,265 @@
+package de.mechrain.cli;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Correlates requests with their responses so several requests can be in flight at once.
+ * <p>
+ * The request beans carry no id, but a server answers the requests of a connection in the order
+ * it receives them, so a response is matched to the oldest pending request of the same
+ * connection expecting its type. A request which timed out stays queued for another timeout, so
+ * its late response is still recognized instead of being taken for the answer to the next
+ * request. After that it is dropped once a newer request of the type is queued or answered,
+ * which brings the matching back in step if the server never answers a request.
+ * <p>
+ * Without ids the matching stays ambiguous: a request the server never answers receives the
+ * response of the next request if that arrives before the timeout, while a timed-out request is
+ * still queued the responses of the following requests are consumed as its late answer, and a
+ * response arriving later than twice the timeout is taken for the answer to the next pending
+ * request.
+ * <p>
+ * Requests without a response are only counted. The number of requests waiting for a response
+ * is limited, the round-trip latency is recorded per command.
+ */
+final class RequestTracker {
+
+	static final int MAX_IN_FLIGHT = 32;
+	static final long TIMEOUT_MILLIS = 5_000;
+
+	private final Semaphore inFlight;
+	private final int maxInFlight;
+	private final long timeoutMillis;
+	/** Pending requests by connection and expected response type, guarded by this. */
+	private final Map<ServerConnection, Map<Class<?>, ArrayDeque<Pending<?>>>> pending = new IdentityHashMap<>();
+	/** Guarded by this. */
+	private final Map<String, CommandStats> commands = new HashMap<>();
+	private long late;
+
+	/**
+	 * @param maxInFlight the maximum number of requests waiting for a response
+	 * @param timeoutMillis how long to wait for a response
+	 */
+	RequestTracker(final int maxInFlight, final long timeoutMillis) {
+		this.inFlight = new Semaphore(maxInFlight);
+		this.maxInFlight = maxInFlight;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Sends a request and returns its response. Waits for at most the timeout if the maximum
+	 * number of requests is already waiting for a response.
+	 *
+	 * @param connection the connection to send the request to
+	 * @param request the request bean
+	 * @param responseType the type of the response
+	 * @return the response, completes exceptionally on timeout or if the connection is lost
+	 */
+	<T> CompletableFuture<T> request(final ServerConnection connection, final Object request, final Class<T> responseType) {
+		final CompletableFuture<T> future = new CompletableFuture<>();
+		try {
+			if ( ! inFlight.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+				future.completeExceptionally(new IOException("Too many requests in flight"));
+				return future;
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			future.completeExceptionally(e);
+			return future;
+		}
+		final String command = commandOf(request);
+		final Pending<T> entry = new Pending<>(future, responseType);
+		synchronized (this) {
+			final ArrayDeque<Pending<?>> queue = pending.computeIfAbsent(connection, c -> new HashMap<>()).computeIfAbsent(responseType, t -> new ArrayDeque<>());
+			evictExpired(queue);
+			queue.addLast(entry);
+		}
+		future.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS).whenComplete((response, failure) -> {
+			inFlight.release();
+			record(command, System.nanoTime() - entry.sent, failure);
+		});
+		try {
+			connection.send(request);
+		} catch (final IOException e) {
+			synchronized (this) {
+				final Map<Class<?>, ArrayDeque<Pending<?>>> byType = pending.get(connection);
+				if (byType != null) {
+					byType.get(responseType).remove(entry);
+				}
+			}
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * Sends a request the server doesn't answer.
+	 *
+	 * @param connection the connection to send the request to
+	 * @param request the request bean
+	 * @throws IOException if the connection is closed
+	 */
+	void send(final ServerConnection connection, final Object request) throws IOException {
+		final String command = commandOf(request);
+		try {
+			connection.send(request);
+		} catch (final IOException e) {
+			record(command, 0, e);
+			throw e;
+		}
+		synchronized (this) {
+			commands.computeIfAbsent(command, c -> new CommandStats()).sent++;
+		}
+	}
+
+	/**
+	 * Completes the oldest pending request of the connection expecting the type of the response.
+	 *
+	 * @param connection the connection the response was received from
+	 * @param response the response
+	 * @return false if no request is waiting for the response
+	 */
+	boolean complete(final ServerConnection connection, final Object response) {
+		final Pending<?> entry;
+		synchronized (this) {
+			final Map<Class<?>, ArrayDeque<Pending<?>>> byType = pending.get(connection);
+			final ArrayDeque<Pending<?>> queue = byType != null ? byType.get(response.getClass()) : null;
+			if (queue != null) {
+				evictExpired(queue);
+			}
+			entry = queue != null ? queue.pollFirst() : null;
+			if (entry == null) {
+				return false;
+			}
+			if (entry.future.isDone()) {
+				late++;
+				return true;
+			}
+		}
+		entry.complete(response);
+		return true;
+	}
+
+	/**
+	 * Drops the timed-out requests at the head of a queue which no longer wait for their late
+	 * response, i.e. sent more than twice the timeout ago.
+	 */
+	private void evictExpired(final ArrayDeque<Pending<?>> queue) {
+		final long expired = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(2 * timeoutMillis);
+		Pending<?> head;
+		while ((head = queue.peekFirst()) != null && head.future.isDone() && head.sent - expired < 0) {
+			queue.pollFirst();
+		}
+	}
+
+	/**
+	 * Fails all pending requests of a closed connection.
+	 *
+	 * @param connection the connection
+	 * @param cause the reason
+	 */
+	void fail(final ServerConnection connection, final Exception cause) {
+		final Map<Class<?>, ArrayDeque<Pending<?>>> byType;
+		synchronized (this) {
+			byType = pending.remove(connection);
+		}
+		if (byType == null) {
+			return;
+		}
+		final IOException failure = new IOException("Connection to " + connection.getTag() + " closed", cause);
+		for (final ArrayDeque<Pending<?>> queue : byType.values()) {
+			for (final Pending<?> entry : queue) {
+				entry.future.completeExceptionally(failure);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of requests waiting for a response
+	 */
+	int getInFlight() {
+		return maxInFlight - inFlight.availablePermits();
+	}
+
+	/**
+	 * @return the number of responses received after their request timed out
+	 */
+	synchronized long getLate() {
+		return late;
+	}
+
+	/**
+	 * @return a copy of the statistics by command name
+	 */
+	synchronized Map<String, CommandStats> getCommands() {
+		final Map<String, CommandStats> copy = new TreeMap<>();
+		for (final Map.Entry<String, CommandStats> entry : commands.entrySet()) {
+			copy.put(entry.getKey(), entry.getValue().copy());
+		}
+		return copy;
+	}
+
+	private synchronized void record(final String command, final long nanos, final Throwable failure) {
+		final CommandStats stats = commands.computeIfAbsent(command, c -> new CommandStats());
+		stats.sent++;
+		if (failure == null) {
+			stats.latency.add(nanos / 1_000_000d);
+		} else if (failure instanceof TimeoutException) {
+			stats.timeouts++;
+		} else {
+			stats.failures++;
+		}
+	}
+
+	/**
+	 * The command name is the simple name of the request bean without the <code>Request</code> suffix.
+	 */
+	static String commandOf(final Object request) {
+		final String name = request.getClass().getSimpleName();
+		return name.endsWith("Request") && name.length() > 7 ? name.substring(0, name.length() - 7) : name;
+	}
+
+	/**
+	 * Round-trip latency in milliseconds of the answered requests and failures of one command.
+	 */
+	static final class CommandStats {
+
+		final Stats latency = new Stats();
+		long sent;
+		long timeouts;
+		long failures;
+
+		CommandStats copy() {
+			final CommandStats copy = new CommandStats();
+			copy.latency.add(latency);
+			copy.sent = sent;
+			copy.timeouts = timeouts;
+			copy.failures = failures;
+			return copy;
+		}
+	}
+
+	private static final class Pending<T> {
+
+		final CompletableFuture<T> future;
+		final Class<T> responseType;
+		final long sent = System.nanoTime();
+
+		Pending(final CompletableFuture<T> future, final Class<T> responseType) {
+			this.future = future;
+			this.responseType = responseType;
+		}
+
+		void complete(final Object response) {
+			future.complete(responseType.cast(response));
+		}
+	}
+}
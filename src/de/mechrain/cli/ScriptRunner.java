@@ -0,0 +1,192 @@
+package de.mechrain.cli;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+
+import de.mechrain.cmdline.beans.DeviceConfigResponse;
+import de.mechrain.cmdline.beans.DeviceListRequest;
+import de.mechrain.cmdline.beans.DeviceListResponse;
+import de.mechrain.cmdline.beans.LogEvent;
+
+/**
+ * Runs the device sections of a {@link DeviceScript} against a server.
+ * <p>
+ * The server keeps the configured device per connection, so the sections are distributed over
+ * up to {@link #MAX_SESSIONS} additional connections to the server. The requests of all sections
+ * of a connection are written without waiting for the responses, the number of outstanding
+ * config requests is bounded by the {@link RequestTracker}. A device list request at the end of
+ * each connection serves as barrier: its response arrives once the server read all commands
+ * before it. The provisioning time thereby depends on the round-trips in flight instead of the
+ * sum of the round-trips.
+ */
+final class ScriptRunner {
+
+	static final int MAX_SESSIONS = 4;
+
+	private final ServerDiscovery discovery;
+	private final RequestTracker tracker;
+
+	ScriptRunner(final ServerDiscovery discovery, final RequestTracker tracker) {
+		this.discovery = discovery;
+		this.tracker = tracker;
+	}
+
+	/**
+	 * Runs the script and waits until all connections passed the barrier or failed.
+	 *
+	 * @param script the script
+	 * @param server the connection to the server to provision the devices of
+	 * @return the result
+	 * @throws IOException if no additional connection to the server could be opened
+	 */
+	Result run(final DeviceScript script, final ServerConnection server) throws IOException {
+		final long start = System.nanoTime();
+		final List<DeviceScript.Section> sections = script.getSections();
+		final List<ServerConnection> sessions = open(server, Math.min(MAX_SESSIONS, sections.size()));
+		final Result result = new Result(sections.size(), sessions.size());
+		try {
+			final List<CompletableFuture<?>> pending = new ArrayList<>();
+			for (int i = 0; i < sections.size(); i++) {
+				pending.add(send(sections.get(i), sessions.get(i % sessions.size()), result));
+			}
+			for (final ServerConnection session : sessions) {
+				pending.add(tracker.request(session, DeviceListRequest.INSTANCE, DeviceListResponse.class));
+			}
+			for (final CompletableFuture<?> future : pending) {
+				try {
+					future.join();
+				} catch (final CompletionException e) {
+					// recorded by the section
+				}
+			}
+		} finally {
+			for (final ServerConnection session : sessions) {
+				session.close();
+			}
+		}
+		result.millis = (System.nanoTime() - start) / 1_000_000;
+		return result;
+	}
+
+	private List<ServerConnection> open(final ServerConnection server, final int count) throws IOException {
+		final List<ServerConnection> sessions = new ArrayList<>();
+		try {
+			for (int i = 0; i < count; i++) {
+				final ServerConnection session = discovery.open(server.getTag() + '#' + (i + 1), server.getAddress());
+				session.start(new SessionHandler());
+				sessions.add(session);
+			}
+		} catch (final IOException e) {
+			if (sessions.isEmpty()) {
+				throw e;
+			}
+		}
+		return sessions;
+	}
+
+	/**
+	 * Writes all requests of a section.
+	 *
+	 * @return completes once the device config response arrived or the section failed
+	 */
+	private CompletableFuture<?> send(final DeviceScript.Section section, final ServerConnection session, final Result result) {
+		final DeviceScript.Command config = section.commands.get(0);
+		final long sent = System.nanoTime();
+		final CompletableFuture<DeviceConfigResponse> response = tracker.request(session, config.request, DeviceConfigResponse.class);
+		final CompletableFuture<?> done = response.whenComplete((r, failure) -> {
+			if (failure == null) {
+				result.record(RequestTracker.commandOf(config.request), System.nanoTime() - sent, null);
+			} else {
+				result.record(RequestTracker.commandOf(config.request), 0, failure);
+				result.fail(section, config, failure);
+			}
+		});
+		for (int i = 1; i < section.commands.size(); i++) {
+			final DeviceScript.Command command = section.commands.get(i);
+			try {
+				tracker.send(session, command.request);
+				result.record(RequestTracker.commandOf(command.request), -1, null);
+			} catch (final IOException e) {
+				result.record(RequestTracker.commandOf(command.request), -1, e);
+				result.fail(section, command, e);
+				break;
+			}
+		}
+		return done;
+	}
+
+	/**
+	 * The log events of the additional connections are already received by the main connection,
+	 * only the responses are of interest.
+	 */
+	private final class SessionHandler implements ServerConnection.FrameHandler {
+
+		@Override
+		public void frame(final ServerConnection connection, final Object frame) {
+			if ( ! (frame instanceof LogEvent)) {
+				tracker.complete(connection, frame);
+			}
+		}
+
+		@Override
+		public void closed(final ServerConnection connection, final Exception cause) {
+			tracker.fail(connection, cause);
+		}
+	}
+
+	/**
+	 * The outcome of a script run.
+	 */
+	static final class Result {
+
+		final int sections;
+		final int sessions;
+		long millis;
+		/** Guarded by this. */
+		private final Map<String, RequestTracker.CommandStats> commands = new TreeMap<>();
+		/** Guarded by this. */
+		private final Map<Integer, String> failures = new TreeMap<>();
+
+		Result(final int sections, final int sessions) {
+			this.sections = sections;
+			this.sessions = sessions;
+		}
+
+		/**
+		 * @param nanos the round-trip time or -1 for requests without response
+		 */
+		synchronized void record(final String command, final long nanos, final Throwable failure) {
+			final RequestTracker.CommandStats stats = commands.computeIfAbsent(command, c -> new RequestTracker.CommandStats());
+			stats.sent++;
+			if (failure instanceof TimeoutException) {
+				stats.timeouts++;
+			} else if (failure != null) {
+				stats.failures++;
+			} else if (nanos >= 0) {
+				stats.latency.add(nanos / 1_000_000d);
+			}
+		}
+
+		synchronized void fail(final DeviceScript.Section section, final DeviceScript.Command command, final Throwable failure) {
+			final String reason = failure instanceof TimeoutException ? "no response within " + RequestTracker.TIMEOUT_MILLIS + "ms" : failure.getMessage();
+			failures.putIfAbsent(section.line, "Device " + section.deviceId + ": '" + command.text + "' in line " + command.line + " failed, " + reason);
+		}
+
+		synchronized Map<String, RequestTracker.CommandStats> getCommands() {
+			return new TreeMap<>(commands);
+		}
+
+		/**
+		 * @return the failures by the line of the section
+		 */
+		synchronized List<String> getFailures() {
+			return new ArrayList<>(failures.values());
+		}
+	}
+}
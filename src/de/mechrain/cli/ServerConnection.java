@@ -0,0 +1,270 @@
+package de.mechrain.cli;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+import de.mechrain.cmdline.MechRainFory;
+
+/**
+ * Connection to one of the MechRain servers answering the discovery broadcast.
+ * <p>
+ * The tag identifies the server in the merged log view and in filter expressions
+ * (<code>server:</code>), it defaults to the address of the server.
+ * <p>
+ * All I/O is done by the {@link ConnectionEngine} thread. Received frames are decoded from a
+ * single read buffer which only grows for large frames, like {@link FrameReader} does for streams.
+ */
+public class ServerConnection implements Closeable {
+
+	/**
+	 * Receives the frames of a connection on the engine thread.
+	 */
+	public interface FrameHandler {
+
+		/**
+		 * @param connection the connection
+		 * @param frame the deserialized frame
+		 * @throws InterruptedException if interrupted while handing the frame over
+		 */
+		void frame(ServerConnection connection, Object frame) throws InterruptedException;
+
+		/**
+		 * Called once when the connection is closed or lost.
+		 *
+		 * @param connection the connection
+		 * @param cause the failure or <code>null</code> if the connection was closed
+		 */
+		void closed(ServerConnection connection, Exception cause);
+	}
+
+	private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_GATHER = 64;
+
+	private final ConnectionEngine engine;
+	private final String tag;
+	private final SocketChannel channel;
+	private final InetSocketAddress address;
+	/** Frames to write, guarded by itself. */
+	private final ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<>();
+
+	/* only touched by the engine thread */
+	private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+	private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+	private byte[] frame = new byte[4 * 1024];
+	private SelectionKey key;
+
+	private volatile FrameHandler handler;
+	private volatile boolean open = true;
+	private volatile boolean readPaused;
+	private volatile long received;
+
+	ServerConnection(final ConnectionEngine engine, final String tag, final SocketChannel channel) throws IOException {
+		this.engine = engine;
+		this.tag = tag;
+		this.channel = channel;
+		this.address = (InetSocketAddress) channel.getRemoteAddress();
+	}
+
+	public String getTag() {
+		return tag;
+	}
+
+	/**
+	 * @return the address and port of the server
+	 */
+	public InetSocketAddress getAddress() {
+		return address;
+	}
+
+	/**
+	 * @return the number of log events received from the server
+	 */
+	public long getReceived() {
+		return received;
+	}
+
+	/**
+	 * Counts a received log event. Must only be called from the frame handler.
+	 */
+	void countReceived() {
+		received++;
+	}
+
+	/**
+	 * @return false once the connection was closed or lost
+	 */
+	public boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * Starts reading, the frames are passed to the handler on the engine thread.
+	 *
+	 * @param frameHandler the handler
+	 */
+	public void start(final FrameHandler frameHandler) {
+		this.handler = frameHandler;
+		engine.register(this);
+	}
+
+	/**
+	 * Serializes a request and queues it for writing, doesn't wait for the network.
+	 *
+	 * @param request the request bean
+	 * @throws IOException if the connection is closed
+	 */
+	public void send(final Object request) throws IOException {
+		if ( ! open) {
+			throw new IOException("Connection to " + tag + " is closed");
+		}
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+		MechRainFory.serializeAndSend(request, new DataOutputStream(bos));
+		synchronized (writeQueue) {
+			writeQueue.addLast(ByteBuffer.wrap(bos.toByteArray()));
+		}
+		engine.requestWrite(this);
+	}
+
+	/**
+	 * Stops reading from the socket, the server is slowed down by TCP flow control until
+	 * {@link #resumeReading()}. Frames already read are still passed to the handler.
+	 */
+	public void pauseReading() {
+		readPaused = true;
+		engine.requestInterestUpdate(this);
+	}
+
+	/**
+	 * Reads again after {@link #pauseReading()}, may be called from any thread.
+	 */
+	public void resumeReading() {
+		readPaused = false;
+		engine.requestInterestUpdate(this);
+	}
+
+	/**
+	 * @return true while reading is paused
+	 */
+	boolean isReadPaused() {
+		return readPaused;
+	}
+
+	/**
+	 * Closes the connection, the handler is notified on the engine thread.
+	 */
+	@Override
+	public void close() {
+		open = false;
+		engine.requestClose(this);
+	}
+
+	SocketChannel getChannel() {
+		return channel;
+	}
+
+	SelectionKey getKey() {
+		return key;
+	}
+
+	void setKey(final SelectionKey key) {
+		this.key = key;
+	}
+
+	/**
+	 * Reads what is available and hands all complete frames to the handler.
+	 *
+	 * @return false if the server closed the connection
+	 */
+	boolean read() throws IOException, InterruptedException {
+		final int read = channel.read(readBuffer);
+		if (read < 0) {
+			return false;
+		}
+		readBuffer.flip();
+		while (readBuffer.remaining() >= Integer.BYTES) {
+			final int len = readBuffer.getInt(readBuffer.position());
+			if (len < 0 || len > FrameReader.MAX_FRAME_SIZE) {
+				throw new IOException("Invalid frame length " + len + " (max " + FrameReader.MAX_FRAME_SIZE + ")");
+			}
+			if (readBuffer.remaining() < Integer.BYTES + len) {
+				if (readBuffer.capacity() < Integer.BYTES + len) {
+					final ByteBuffer larger = ByteBuffer.allocate(Integer.BYTES + len);
+					larger.put(readBuffer);
+					readBuffer = larger;
+					return true;
+				}
+				break;
+			}
+			if (frame.length < len) {
+				frame = new byte[Math.max(len, frame.length * 2)];
+			}
+			readBuffer.position(readBuffer.position() + Integer.BYTES);
+			readBuffer.get(frame, 0, len);
+			handler.frame(this, MechRainFory.deserialize(frame));
+		}
+		if ( ! readBuffer.hasRemaining() && readBuffer.capacity() > INITIAL_BUFFER_SIZE) {
+			/* don't hold on to the memory of a single huge frame */
+			readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+			frame = new byte[4 * 1024];
+		} else {
+			readBuffer.compact();
+		}
+		return true;
+	}
+
+	/**
+	 * Writes queued frames with gathering writes until the queue is empty or the socket buffer
+	 * is full.
+	 *
+	 * @return true if all queued frames are written
+	 */
+	boolean write() throws IOException {
+		synchronized (writeQueue) {
+			while ( ! writeQueue.isEmpty()) {
+				int count = 0;
+				for (final ByteBuffer buffer : writeQueue) {
+					gather[count++] = buffer;
+					if (count == MAX_GATHER) {
+						break;
+					}
+				}
+				channel.write(gather, 0, count);
+				while ( ! writeQueue.isEmpty() && ! writeQueue.peekFirst().hasRemaining()) {
+					writeQueue.removeFirst();
+				}
+				if (gather[count - 1].hasRemaining()) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Closes the channel and notifies the handler once, called on the engine thread.
+	 */
+	void closed(final Exception cause) {
+		final boolean wasOpen = open;
+		open = false;
+		try {
+			channel.close();
+		} catch (final IOException e) {
+			// closing anyway
+		}
+		synchronized (writeQueue) {
+			writeQueue.clear();
+		}
+		final FrameHandler frameHandler = handler;
+		handler = null;
+		if (frameHandler != null) {
+			frameHandler.closed(this, wasOpen ? cause : null);
+		}
+	}
+}
@@ -0,0 +1,305 @@
+package de.mechrain.cli;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Finds and connects the MechRain servers.
+ * <p>
+ * The endpoints of the last session are cached in {@link #ENDPOINT_FILE_NAME} and tried directly
+ * with a short connect timeout first, so a restart of the CLI or a reconnect doesn't wait for the
+ * broadcast. Servers which can't be reached that way are searched with the UDP discovery
+ * broadcast, repeated with jittered exponential backoff until a server answers. Servers added
+ * since the last session are found by {@link #connectNew(List)}, which runs a single discovery
+ * window in the background once the cached servers are connected.
+ */
+public class ServerDiscovery {
+
+	static final String ENDPOINT_FILE_NAME = "endpoint.properties";
+	static final int CONNECT_TIMEOUT_MILLIS = 500;
+
+	private static final String SERVERS = "servers";
+	private static final int LOCAL_UDP_PORT = 9999;
+	/** How long further servers may answer the discovery broadcast after the first one. */
+	private static final int DISCOVERY_WINDOW_MILLIS = 1_500;
+	private static final long MIN_BACKOFF_MILLIS = 250;
+	private static final long MAX_BACKOFF_MILLIS = 5_000;
+
+	private final ConnectionEngine engine;
+	private final MechRainTerminal terminal;
+	private final int udpPort;
+	private final Path endpointFile = Paths.get(ENDPOINT_FILE_NAME);
+
+	/**
+	 * @param engine the engine the connections are opened with
+	 * @param terminal the terminal for progress output
+	 * @param udpPort the port the servers listen on for the discovery broadcast
+	 */
+	public ServerDiscovery(final ConnectionEngine engine, final MechRainTerminal terminal, final int udpPort) {
+		this.engine = engine;
+		this.terminal = terminal;
+		this.udpPort = udpPort;
+	}
+
+	/**
+	 * Connects the cached servers and, unless all of them could be connected, searches further
+	 * servers with the discovery broadcast until at least one server is connected.
+	 *
+	 * @return the connections, empty only if discovered servers refused the connection
+	 */
+	public synchronized List<ServerConnection> connect() throws IOException {
+		final List<InetSocketAddress> cached = loadEndpoints();
+		final List<ServerConnection> connections = new ArrayList<>();
+		final Set<InetSocketAddress> connected = new LinkedHashSet<>();
+		for (final InetSocketAddress address : cached) {
+			try {
+				connections.add(engine.connect(tagOf(address, cached), address, CONNECT_TIMEOUT_MILLIS));
+				connected.add(address);
+			} catch (final IOException e) {
+				// moved or not running, try the broadcast
+			}
+		}
+		if (cached.isEmpty() || connected.size() < cached.size()) {
+			final Set<InetSocketAddress> servers = discover(connections.isEmpty() ? Integer.MAX_VALUE : 1);
+			servers.addAll(connected);
+			for (final InetSocketAddress server : servers) {
+				if (connected.contains(server)) {
+					continue;
+				}
+				try {
+					connections.add(engine.connect(tagOf(server, servers), server, CONNECT_TIMEOUT_MILLIS));
+					connected.add(server);
+				} catch (final IOException e) {
+					terminal.printError("Could not connect to " + server + " " + e.getMessage());
+				}
+			}
+		}
+		if ( ! connected.isEmpty()) {
+			saveEndpoints(connected);
+		}
+		return connections;
+	}
+
+	/**
+	 * Tries once to reconnect a lost server directly and, if requested, with one discovery
+	 * broadcast to pick up a changed port of the same host.
+	 *
+	 * @param tag the tag of the server
+	 * @param address the last known address
+	 * @param broadcast whether to fall back to the broadcast
+	 * @return the connection or <code>null</code> if the server is not reachable yet
+	 */
+	public synchronized ServerConnection reconnect(final String tag, final InetSocketAddress address, final boolean broadcast) {
+		try {
+			return engine.connect(tag, address, CONNECT_TIMEOUT_MILLIS);
+		} catch (final IOException e) {
+			if ( ! broadcast) {
+				return null;
+			}
+		}
+		try {
+			for (final InetSocketAddress server : discover(1)) {
+				if (server.getAddress().equals(address.getAddress())) {
+					final ServerConnection connection = engine.connect(tag, server, CONNECT_TIMEOUT_MILLIS);
+					final List<InetSocketAddress> endpoints = loadEndpoints();
+					endpoints.remove(address);
+					endpoints.add(server);
+					saveEndpoints(endpoints);
+					return connection;
+				}
+			}
+		} catch (final IOException e) {
+			// retried with the next attempt
+		}
+		return null;
+	}
+
+	/**
+	 * Searches servers which are not connected yet with a single discovery broadcast, connects
+	 * them and adds them to the cached endpoints.
+	 *
+	 * @param connections the connected servers
+	 * @return the connections to the newly found servers
+	 */
+	public synchronized List<ServerConnection> connectNew(final List<ServerConnection> connections) {
+		final Set<InetSocketAddress> known = new LinkedHashSet<>();
+		for (final ServerConnection connection : connections) {
+			known.add(connection.getAddress());
+		}
+		final Set<InetSocketAddress> servers;
+		try {
+			servers = discover(1);
+		} catch (final IOException e) {
+			return List.of();
+		}
+		servers.addAll(known);
+		final List<ServerConnection> added = new ArrayList<>();
+		for (final InetSocketAddress server : servers) {
+			if (known.contains(server)) {
+				continue;
+			}
+			try {
+				added.add(engine.connect(tagOf(server, servers), server, CONNECT_TIMEOUT_MILLIS));
+				known.add(server);
+			} catch (final IOException e) {
+				terminal.printError("Could not connect to " + server + " " + e.getMessage());
+			}
+		}
+		if ( ! added.isEmpty()) {
+			saveEndpoints(known);
+		}
+		return added;
+	}
+
+	/**
+	 * Opens an additional connection to a server which is already connected.
+	 *
+	 * @param tag the tag of the connection
+	 * @param address the address of the server
+	 * @return the connection
+	 * @throws IOException if the server can't be connected
+	 */
+	public ServerConnection open(final String tag, final InetSocketAddress address) throws IOException {
+		return engine.connect(tag, address, CONNECT_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * Broadcasts the discovery request until a server answers or the attempts are used up and
+	 * collects the answers of further servers for {@link #DISCOVERY_WINDOW_MILLIS}. The time
+	 * waited for an answer doubles with every attempt.
+	 *
+	 * @param maxAttempts the maximum number of broadcasts
+	 * @return the addresses of the answering servers
+	 */
+	private Set<InetSocketAddress> discover(final int maxAttempts) throws IOException {
+		final Set<InetSocketAddress> servers = new LinkedHashSet<>();
+		try (final DatagramSocket socket = new DatagramSocket(LOCAL_UDP_PORT)) {
+			socket.setBroadcast(true);
+
+			final boolean connectToTest = System.getProperty("test") != null;
+
+			if (maxAttempts > 1) {
+				terminal.write("Waiting for connection" + (connectToTest ? " to CLI test server" : ""));
+			}
+
+			int attempt = 0;
+			long deadline = Long.MAX_VALUE;
+			while (System.currentTimeMillis() < deadline) {
+				try {
+					if (servers.isEmpty()) {
+						if (attempt == maxAttempts) {
+							break;
+						}
+						final byte[] payload = connectToTest ? "CLI-TEST".getBytes(StandardCharsets.UTF_8) : "CLI-HELLO".getBytes(StandardCharsets.UTF_8);
+						final DatagramPacket broadcast = new DatagramPacket(payload, payload.length, InetAddress.getByName("255.255.255.255"), udpPort);
+						socket.send(broadcast);
+						socket.setSoTimeout((int) backoffMillis(attempt++, MAX_BACKOFF_MILLIS));
+					}
+
+					final byte[] buf = new byte[256];
+					final DatagramPacket response = new DatagramPacket(buf, buf.length);
+					socket.receive(response);
+
+					final String responseString = new String(response.getData(), 0, response.getLength());
+					final String port = responseString.substring(responseString.lastIndexOf("PORT=") + 5).trim();
+					servers.add(new InetSocketAddress(response.getAddress(), Integer.valueOf(port)));
+					if (deadline == Long.MAX_VALUE) {
+						deadline = System.currentTimeMillis() + DISCOVERY_WINDOW_MILLIS;
+					}
+					socket.setSoTimeout((int) Math.max(1, deadline - System.currentTimeMillis()));
+				} catch (final SocketTimeoutException e) {
+					if (servers.isEmpty() && maxAttempts > 1) {
+						terminal.write(".");
+					}
+				} catch (final NumberFormatException e) {
+					// not a discovery answer
+				}
+			}
+		}
+		return servers;
+	}
+
+	/**
+	 * Exponential backoff starting at {@link #MIN_BACKOFF_MILLIS} with a random jitter of up to
+	 * half the delay, so several CLIs don't retry in lockstep.
+	 *
+	 * @param attempt the number of failed attempts so far
+	 * @param max the maximum delay
+	 * @return the delay in milliseconds
+	 */
+	static long backoffMillis(final int attempt, final long max) {
+		final long delay = Math.min(max, MIN_BACKOFF_MILLIS << Math.min(attempt, 16));
+		return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+	}
+
+	/**
+	 * The tag of a server is its address, plus the port if several servers run on the same host.
+	 */
+	static String tagOf(final InetSocketAddress server, final Iterable<InetSocketAddress> servers) {
+		final String host = server.getAddress().getHostAddress();
+		for (final InetSocketAddress other : servers) {
+			if ( ! other.equals(server) && other.getAddress().equals(server.getAddress())) {
+				return host + ':' + server.getPort();
+			}
+		}
+		return host;
+	}
+
+	private List<InetSocketAddress> loadEndpoints() {
+		final List<InetSocketAddress> endpoints = new ArrayList<>();
+		if ( ! Files.exists(endpointFile)) {
+			return endpoints;
+		}
+		final Properties properties = new Properties();
+		try (final InputStream is = Files.newInputStream(endpointFile)) {
+			properties.load(is);
+		} catch (final IOException e) {
+			return endpoints;
+		}
+		for (final String endpoint : properties.getProperty(SERVERS, "").split(",")) {
+			final int colon = endpoint.lastIndexOf(':');
+			if (colon <= 0) {
+				continue;
+			}
+			try {
+				endpoints.add(new InetSocketAddress(InetAddress.getByName(endpoint.substring(0, colon).trim()), Integer.parseInt(endpoint.substring(colon + 1).trim())));
+			} catch (final IOException | IllegalArgumentException e) {
+				// skip invalid entries
+			}
+		}
+		return endpoints;
+	}
+
+	private void saveEndpoints(final Iterable<InetSocketAddress> endpoints) {
+		final StringBuilder sb = new StringBuilder();
+		for (final InetSocketAddress endpoint : endpoints) {
+			if (sb.length() > 0) {
+				sb.append(',');
+			}
+			sb.append(endpoint.getAddress().getHostAddress()).append(':').append(endpoint.getPort());
+		}
+		final Properties properties = new Properties();
+		properties.setProperty(SERVERS, sb.toString());
+		try (final OutputStream os = Files.newOutputStream(endpointFile)) {
+			properties.store(os, null);
+		} catch (final IOException e) {
+			// only a cache
+		}
+	}
+}
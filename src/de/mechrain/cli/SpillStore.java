@@ -0,0 +1,253 @@
+package de.mechrain.cli;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.apache.logging.log4j.spi.StandardLevel;
+
+/**
+ * Disk backed second tier below the {@link LogBuffer}. Messages evicted from the in-memory ring
+ * are appended to memory mapped segment files using the {@link LogCodec} encoding.
+ * <p>
+ * The disk budget is split into a fixed number of segments which are recycled round robin, so
+ * once the budget is used up the oldest segment is overwritten. Recycling instead of deleting
+ * avoids unmapping files, which is not possible reliably on every platform.
+ * <p>
+ * All access is synchronized; the writer only enters when a message gets evicted from memory.
+ */
+public class SpillStore implements Closeable {
+
+	private static final int CHECKPOINT_INTERVAL = 64;
+	private static final int MIN_SEGMENT_SIZE = 64 * 1024;
+	private static final int MAX_SEGMENT_SIZE = 32 * 1024 * 1024;
+
+	private final Path directory;
+	private final int segmentSize;
+	private final Segment[] segments;
+
+	/** Index of the segment currently appended to. */
+	private int newest = -1;
+	/** Number of segments holding data. */
+	private int used;
+	/** Stored sequence range [firstSeq, endSeq). */
+	private long firstSeq;
+	private long endSeq;
+
+	public SpillStore(final Path directory, final long budgetBytes) {
+		this.directory = directory;
+		this.segmentSize = (int) Math.max(MIN_SEGMENT_SIZE, Math.min(MAX_SEGMENT_SIZE, budgetBytes / 4));
+		this.segments = new Segment[(int) Math.max(2, budgetBytes / segmentSize)];
+	}
+
+	/**
+	 * Creates a spill store in a new temporary directory.
+	 *
+	 * @param budgetBytes the maximum number of bytes to use on disk
+	 * @return the spill store
+	 * @throws IOException if the directory could not be created
+	 */
+	public static SpillStore createTemp(final long budgetBytes) throws IOException {
+		return new SpillStore(Files.createTempDirectory("mechrain-spill"), budgetBytes);
+	}
+
+	/**
+	 * Appends an evicted message. Sequence numbers are expected to be contiguous, a gap discards
+	 * all previously stored messages.
+	 */
+	synchronized void append(final long seq, final String server, final StandardLevel level, final long timestamp, final String loggerName, final String text) throws IOException {
+		if (used == 0 || seq != endSeq) {
+			discard();
+			firstSeq = seq;
+			endSeq = seq;
+		}
+		final byte[] serverBytes = LogCodec.encodeServer(server);
+		byte[] loggerBytes = LogCodec.encodeString(loggerName);
+		if (loggerBytes.length > 0xFFFF) {
+			loggerBytes = Arrays.copyOf(loggerBytes, 0xFFFF);
+		}
+		byte[] textBytes = LogCodec.encodeString(text);
+		if (LogCodec.encodedSize(serverBytes, loggerBytes, textBytes) > segmentSize) {
+			textBytes = Arrays.copyOf(textBytes, segmentSize - LogCodec.encodedSize(serverBytes, loggerBytes, new byte[0]));
+		}
+
+		Segment segment = newest >= 0 && used > 0 ? segments[newest] : null;
+		if (segment == null || segment.limit + LogCodec.encodedSize(serverBytes, loggerBytes, textBytes) > segmentSize) {
+			segment = roll();
+		}
+		if (segment.count % CHECKPOINT_INTERVAL == 0) {
+			segment.addCheckpoint();
+		}
+		segment.limit = LogCodec.encode(segment.buffer, segment.limit, level, timestamp, serverBytes, loggerBytes, textBytes);
+		segment.count++;
+		endSeq++;
+	}
+
+	private Segment roll() throws IOException {
+		if (used < segments.length) {
+			used++;
+		} else {
+			/* recycle the oldest segment */
+			final Segment oldest = segments[(newest + 1) % segments.length];
+			firstSeq += oldest.count;
+		}
+		newest = (newest + 1) % segments.length;
+		Segment segment = segments[newest];
+		if (segment == null) {
+			segment = new Segment(directory.resolve("spill-" + newest + ".seg"), segmentSize);
+			segments[newest] = segment;
+		}
+		segment.reset(endSeq);
+		return segment;
+	}
+
+	/**
+	 * Drops all stored messages.
+	 */
+	synchronized void discard() {
+		used = 0;
+		firstSeq = endSeq;
+	}
+
+	synchronized long getFirstSeq() {
+		return firstSeq;
+	}
+
+	synchronized long getEndSeq() {
+		return endSeq;
+	}
+
+	synchronized boolean isEmpty() {
+		return used == 0 || firstSeq == endSeq;
+	}
+
+	/**
+	 * @return the number of bytes currently occupied by messages
+	 */
+	synchronized long getUsedBytes() {
+		long bytes = 0;
+		for (int i = 0; i < used; i++) {
+			bytes += segments[(newest - i + segments.length) % segments.length].limit;
+		}
+		return bytes;
+	}
+
+	public long getBudgetBytes() {
+		return (long) segmentSize * segments.length;
+	}
+
+	/**
+	 * Reads the message with the given sequence number. Sequential reads through the same cursor
+	 * decode the next record directly instead of searching for it.
+	 *
+	 * @param seq the sequence number
+	 * @param cursor the cursor of the reader
+	 * @return the message or <code>null</code> if it is not stored (any longer)
+	 */
+	synchronized LogMessage read(final long seq, final Cursor cursor) {
+		if (used == 0 || seq < firstSeq || seq >= endSeq) {
+			return null;
+		}
+		if (cursor.seq != seq || cursor.segment == null || cursor.segment.generation != cursor.generation) {
+			seek(seq, cursor);
+		}
+		final Segment segment = cursor.segment;
+		final LogMessage msg = LogCodec.decode(segment.buffer, cursor.pos);
+		cursor.pos += LogCodec.recordSize(segment.buffer, cursor.pos);
+		cursor.seq = seq + 1 < segment.firstSeq + segment.count ? seq + 1 : -1;
+		return msg;
+	}
+
+	private void seek(final long seq, final Cursor cursor) {
+		for (int i = 0; i < used; i++) {
+			final Segment segment = segments[(newest - i + segments.length) % segments.length];
+			if (seq >= segment.firstSeq) {
+				final int ordinal = (int) (seq - segment.firstSeq);
+				int pos = segment.checkpoints[ordinal / CHECKPOINT_INTERVAL];
+				for (int skip = ordinal % CHECKPOINT_INTERVAL; skip > 0; skip--) {
+					pos += LogCodec.recordSize(segment.buffer, pos);
+				}
+				cursor.segment = segment;
+				cursor.generation = segment.generation;
+				cursor.pos = pos;
+				cursor.seq = seq;
+				return;
+			}
+		}
+		throw new IllegalStateException("Sequence " + seq + " not found in spill segments");
+	}
+
+	@Override
+	public synchronized void close() {
+		used = 0;
+		for (final Segment segment : segments) {
+			if (segment != null) {
+				segment.close();
+			}
+		}
+		try {
+			Files.deleteIfExists(directory);
+		} catch (final IOException e) {
+			directory.toFile().deleteOnExit();
+		}
+	}
+
+	/**
+	 * Read position of a single reader.
+	 */
+	static class Cursor {
+		private Segment segment;
+		private int generation;
+		private int pos;
+		private long seq = -1;
+	}
+
+	private static class Segment {
+		private final Path path;
+		private final FileChannel channel;
+		private final MappedByteBuffer buffer;
+
+		private long firstSeq;
+		private int count;
+		private int limit;
+		private int generation;
+		private int[] checkpoints = new int[16];
+
+		Segment(final Path path, final int size) throws IOException {
+			this.path = path;
+			this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			this.buffer = channel.map(MapMode.READ_WRITE, 0, size);
+		}
+
+		void reset(final long firstSeq) {
+			this.firstSeq = firstSeq;
+			this.count = 0;
+			this.limit = 0;
+			this.generation++;
+		}
+
+		void addCheckpoint() {
+			final int index = count / CHECKPOINT_INTERVAL;
+			if (index == checkpoints.length) {
+				checkpoints = Arrays.copyOf(checkpoints, checkpoints.length * 2);
+			}
+			checkpoints[index] = limit;
+		}
+
+		void close() {
+			try {
+				channel.close();
+				Files.deleteIfExists(path);
+			} catch (final IOException e) {
+				/* still mapped on some platforms, try again when the JVM exits */
+				path.toFile().deleteOnExit();
+			}
+		}
+	}
+}
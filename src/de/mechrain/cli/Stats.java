@@ -0,0 +1,72 @@
+package de.mechrain.cli;
+
+/**
+ * Mutable count, min, max and sum of a set of readings.
+ */
+public class Stats {
+
+	private long count;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+	private double sum;
+
+	public void add(final double value) {
+		count++;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+		sum += value;
+	}
+
+	/**
+	 * Adds pre-aggregated readings.
+	 */
+	public void add(final long count, final double min, final double max, final double sum) {
+		if (count == 0) {
+			return;
+		}
+		this.count += count;
+		this.min = Math.min(this.min, min);
+		this.max = Math.max(this.max, max);
+		this.sum += sum;
+	}
+
+	public void add(final Stats stats) {
+		add(stats.count, stats.min, stats.max, stats.sum);
+	}
+
+	public void reset() {
+		count = 0;
+		min = Double.POSITIVE_INFINITY;
+		max = Double.NEGATIVE_INFINITY;
+		sum = 0;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the minimum or NaN if empty
+	 */
+	public double getMin() {
+		return count > 0 ? min : Double.NaN;
+	}
+
+	/**
+	 * @return the maximum or NaN if empty
+	 */
+	public double getMax() {
+		return count > 0 ? max : Double.NaN;
+	}
+
+	public double getSum() {
+		return sum;
+	}
+
+	/**
+	 * @return the average or NaN if empty
+	 */
+	public double getAvg() {
+		return count > 0 ? sum / count : Double.NaN;
+	}
+}
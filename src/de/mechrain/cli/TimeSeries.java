@@ -0,0 +1,276 @@
+package de.mechrain.cli;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Columnar in-memory series of readings of one metric of one device.
+ * <p>
+ * Raw readings are stored in blocks of primitive arrays. Each block holds its first timestamp and
+ * the offsets of all other timestamps as int deltas, plus the min, max and sum of its values, so
+ * blocks fully inside a query window are aggregated without looking at single readings. Blocks
+ * are dropped once they are older than the raw retention or more than the maximum number of
+ * readings are held.
+ * <p>
+ * Every reading is also rolled up on insert into fixed size tiers of 1 second, 1 minute and 1 hour
+ * buckets covering one hour, one day and 90 days, so memory per series is bounded no matter how
+ * long the CLI runs. Queries read the coarsest tier which still yields enough buckets for the
+ * window, see {@link #selectResolution(long, long)}. The 10 second buckets of the last hour are
+ * kept for the dashboard, see {@link #readRecent(long, Stats[])}.
+ * <p>
+ * All methods are synchronized, the series is written by the connection thread and read by the
+ * prompt.
+ */
+public class TimeSeries {
+
+	static final int BLOCK_SIZE = 1024;
+	/** Width and number of the pre-aggregated buckets shown by the dashboard, one hour in total. */
+	static final long RECENT_BUCKET_MILLIS = 10_000;
+	static final int RECENT_BUCKETS = 360;
+	/** Rollup tiers, finest first. */
+	static final long[] TIER_WIDTHS = { 1_000L, 60_000L, 3_600_000L };
+	static final int[] TIER_CAPACITIES = { 3_600, 1_440, 2_160 };
+	/** A tier is adequate for a window spanning at least this many of its buckets. */
+	static final int MIN_BUCKETS_PER_QUERY = 30;
+	/** Resolution returned by {@link #selectResolution(long, long)} for raw readings. */
+	public static final long RAW = 0;
+
+	private final String device;
+	private final String metric;
+	private final int maxBlocks;
+	private final long rawRetentionMillis;
+	private final BucketRing[] tiers = new BucketRing[TIER_WIDTHS.length];
+	private final ArrayDeque<Block> blocks = new ArrayDeque<>();
+	private final BucketRing recent = new BucketRing(RECENT_BUCKET_MILLIS, RECENT_BUCKETS);
+
+	private long total;
+	/** Whether raw blocks have been dropped, otherwise the raw readings cover the whole series. */
+	private boolean rawTruncated;
+	private long lastTimestamp = Long.MIN_VALUE;
+	private double lastValue = Double.NaN;
+
+	/**
+	 * @param device the device
+	 * @param metric the metric name
+	 * @param maxReadings the maximum number of raw readings to keep
+	 * @param rawRetentionMillis how long raw readings are kept, older ones are only held in rollups
+	 */
+	public TimeSeries(final String device, final String metric, final int maxReadings, final long rawRetentionMillis) {
+		this.device = device;
+		this.metric = metric;
+		this.maxBlocks = Math.max(1, (maxReadings + BLOCK_SIZE - 1) / BLOCK_SIZE);
+		this.rawRetentionMillis = rawRetentionMillis;
+		for (int i = 0; i < tiers.length; i++) {
+			tiers[i] = new BucketRing(TIER_WIDTHS[i], TIER_CAPACITIES[i]);
+		}
+	}
+
+	public String getDevice() {
+		return device;
+	}
+
+	public String getMetric() {
+		return metric;
+	}
+
+	public synchronized void add(final long timestamp, final double value) {
+		Block block = blocks.peekLast();
+		if (block == null || block.isFull() || ! block.fits(timestamp)) {
+			if (blocks.size() == maxBlocks) {
+				blocks.removeFirst();
+				rawTruncated = true;
+			}
+			block = new Block(timestamp);
+			blocks.addLast(block);
+		}
+		block.add(timestamp, value);
+		while (blocks.size() > 1 && blocks.peekFirst().maxTimestamp < timestamp - rawRetentionMillis) {
+			blocks.removeFirst();
+			rawTruncated = true;
+		}
+		for (final BucketRing tier : tiers) {
+			tier.add(timestamp, value);
+		}
+		recent.add(timestamp, value);
+		total++;
+		lastTimestamp = timestamp;
+		lastValue = value;
+	}
+
+	/**
+	 * @return the number of readings currently held
+	 */
+	public synchronized int size() {
+		int size = 0;
+		for (final Block block : blocks) {
+			size += block.count;
+		}
+		return size;
+	}
+
+	/**
+	 * @return the number of readings added since the start
+	 */
+	public synchronized long getTotal() {
+		return total;
+	}
+
+	public synchronized long getLastTimestamp() {
+		return lastTimestamp;
+	}
+
+	public synchronized double getLastValue() {
+		return lastValue;
+	}
+
+	/**
+	 * @return the timestamp of the oldest reading held or {@link Long#MIN_VALUE} if empty
+	 */
+	public synchronized long getFirstTimestamp() {
+		final Block first = blocks.peekFirst();
+		return first != null ? first.minTimestamp : Long.MIN_VALUE;
+	}
+
+	/**
+	 * Selects the source for aggregating a window: the raw readings if they cover the window and
+	 * it is shorter than {@link #MIN_BUCKETS_PER_QUERY} minutes, otherwise the coarsest rollup tier
+	 * with at least {@link #MIN_BUCKETS_PER_QUERY} buckets in the window which still covers its
+	 * start.
+	 *
+	 * @param from the start of the window in milliseconds
+	 * @param to the end of the window in milliseconds
+	 * @return {@link #RAW} or the bucket width of the selected tier
+	 */
+	public synchronized long selectResolution(final long from, final long to) {
+		final long window = to - from;
+		final boolean rawCovers = ! rawTruncated || ( ! blocks.isEmpty() && blocks.peekFirst().minTimestamp <= from);
+		if (rawCovers && window < TIER_WIDTHS[1] * MIN_BUCKETS_PER_QUERY) {
+			return RAW;
+		}
+		for (int i = tiers.length - 1; i >= 0; i--) {
+			if (window >= TIER_WIDTHS[i] * MIN_BUCKETS_PER_QUERY && tiers[i].getOldestStart() <= from) {
+				return TIER_WIDTHS[i];
+			}
+		}
+		if (rawCovers) {
+			return RAW;
+		}
+		for (int i = 0; i < tiers.length; i++) {
+			if (tiers[i].getOldestStart() <= from) {
+				return TIER_WIDTHS[i];
+			}
+		}
+		return TIER_WIDTHS[tiers.length - 1];
+	}
+
+	/**
+	 * Aggregates the window [from, to) from the source chosen by
+	 * {@link #selectResolution(long, long)}.
+	 *
+	 * @return the resolution used
+	 */
+	public synchronized long aggregate(final long from, final long to, final Stats stats) {
+		final long resolution = selectResolution(from, to);
+		aggregate(from, to, resolution, stats);
+		return resolution;
+	}
+
+	/**
+	 * Aggregates the window [from, to) at the given resolution. Rollup buckets are included if
+	 * they start within the window, a window shorter than the bucket width reads the bucket
+	 * containing its start.
+	 *
+	 * @param from the start of the window in milliseconds
+	 * @param to the end of the window in milliseconds
+	 * @param resolution {@link #RAW} or the bucket width of a rollup tier
+	 * @param stats the statistics to add the readings to
+	 */
+	public synchronized void aggregate(final long from, final long to, final long resolution, final Stats stats) {
+		if (resolution == RAW) {
+			aggregateRaw(from, to, stats);
+			return;
+		}
+		for (int i = 0; i < tiers.length; i++) {
+			if (TIER_WIDTHS[i] == resolution) {
+				final long start = to - from < resolution ? Math.floorDiv(from, resolution) * resolution : from;
+				tiers[i].aggregate(start, to, stats);
+				return;
+			}
+		}
+		throw new IllegalArgumentException("No rollup tier with resolution " + resolution);
+	}
+
+	private void aggregateRaw(final long from, final long to, final Stats stats) {
+		for (final Iterator<Block> iterator = blocks.descendingIterator(); iterator.hasNext();) {
+			final Block block = iterator.next();
+			if (block.maxTimestamp < from || block.minTimestamp >= to) {
+				continue;
+			}
+			if (block.minTimestamp >= from && block.maxTimestamp < to) {
+				stats.add(block.count, block.min, block.max, block.sum);
+			} else {
+				for (int i = 0; i < block.count; i++) {
+					final long timestamp = block.base + block.deltas[i];
+					if (timestamp >= from && timestamp < to) {
+						stats.add(block.values[i]);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the <code>out.length</code> most recent 10 second buckets ending with the bucket
+	 * containing the given timestamp, oldest first.
+	 *
+	 * @param end a timestamp within the newest bucket to read
+	 * @param out the statistics to fill, at most {@link #RECENT_BUCKETS}
+	 */
+	public synchronized void readRecent(final long end, final Stats[] out) {
+		recent.read(end, out);
+	}
+
+	/**
+	 * Aggregates the 10 second buckets of the last hour starting within [from, to).
+	 */
+	public synchronized void aggregateRecent(final long from, final long to, final Stats stats) {
+		recent.aggregate(from, to, stats);
+	}
+
+	private static final class Block {
+		private final long base;
+		private final int[] deltas = new int[BLOCK_SIZE];
+		private final double[] values = new double[BLOCK_SIZE];
+		private int count;
+		private long minTimestamp;
+		private long maxTimestamp;
+		private double min = Double.POSITIVE_INFINITY;
+		private double max = Double.NEGATIVE_INFINITY;
+		private double sum;
+
+		Block(final long base) {
+			this.base = base;
+			this.minTimestamp = base;
+			this.maxTimestamp = base;
+		}
+
+		boolean isFull() {
+			return count == BLOCK_SIZE;
+		}
+
+		boolean fits(final long timestamp) {
+			final long delta = timestamp - base;
+			return delta >= 0 && delta <= Integer.MAX_VALUE;
+		}
+
+		void add(final long timestamp, final double value) {
+			deltas[count] = (int) (timestamp - base);
+			values[count] = value;
+			count++;
+			maxTimestamp = Math.max(maxTimestamp, timestamp);
+			min = Math.min(min, value);
+			max = Math.max(max, value);
+			sum += value;
+		}
+	}
+}